@@ -2,6 +2,10 @@ package no.fdk.dataservicecatalog.config;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
 
 @Data
 @ConfigurationProperties("application")
@@ -9,4 +13,91 @@ public class ApplicationProperties {
     private String catalogBaseUri;
     private String dataServiceCatalogGuiUrl;
     private String orgCatalogUri;
+    private CatalogCache catalogCache = new CatalogCache();
+    private RdfScheduler rdfScheduler = new RdfScheduler();
+    private ChangesFeed changesFeed = new ChangesFeed();
+    private ParseScheduler parseScheduler = new ParseScheduler();
+    private SpecificationDownload specificationDownload = new SpecificationDownload();
+    private SpecificationCache specificationCache = new SpecificationCache();
+    private ParsedSpecificationCache parsedSpecificationCache = new ParsedSpecificationCache();
+    private ImportJobs importJobs = new ImportJobs();
+    private BulkImport bulkImport = new BulkImport();
+    private ImportRefresh importRefresh = new ImportRefresh();
+
+    @Data
+    public static class CatalogCache {
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+        private DataSize maxEntrySize = DataSize.ofMegabytes(16);
+        private Duration timeToLive = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class RdfScheduler {
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 64;
+        // longest a serialiser that is ahead of its subscriber waits for it to take a chunk
+        private Duration writeTimeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class ChangesFeed {
+        // longest a write may take to commit after taking its timestamp and still be seen by the feed
+        private Duration settleTime = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class ParseScheduler {
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 32;
+        private Duration timeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class SpecificationDownload {
+        private DataSize maxSize = DataSize.ofMegabytes(10);
+        private DataSize maxTotalSize = DataSize.ofMegabytes(128);
+    }
+
+    @Data
+    public static class SpecificationCache {
+        private boolean enabled = true;
+        // a volume, so the cache outlives the container
+        private Path directory = Path.of("/var/lib/dataservice-catalog/specifications");
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+    }
+
+    @Data
+    public static class ParsedSpecificationCache {
+        private DataSize maxSize = DataSize.ofMegabytes(16);
+    }
+
+    @Data
+    public static class ImportJobs {
+        private int concurrency = 4;
+        private int queueCapacity = 100;
+        private Duration unfinishedTimeToLive = Duration.ofDays(1);
+        private Duration heartbeatInterval = Duration.ofMinutes(1);
+        // how long after its last heartbeat an instance's unfinished jobs are failed by the others
+        private Duration heartbeatTimeout = Duration.ofMinutes(3);
+    }
+
+    @Data
+    public static class BulkImport {
+        // imports in flight per request, kept within what the parse scheduler's threads and queue take
+        private int concurrency = 8;
+        private int perHostConcurrency = 2;
+        // data services per bulkWrite, for NDJSON bulk upserts as well as imports
+        private int batchSize = 100;
+        private Duration batchTimeout = Duration.ofMillis(500);
+    }
+
+    @Data
+    public static class ImportRefresh {
+        private boolean enabled = true;
+        private Duration interval = Duration.ofHours(6);
+        private Duration initialDelay = Duration.ofMinutes(10);
+        // specifications in flight, kept within what the parse scheduler's threads and queue take
+        private int concurrency = 4;
+        private int perHostConcurrency = 2;
+    }
 }
@@ -0,0 +1,121 @@
+package no.fdk.dataservicecatalog.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
+import no.fdk.dataservicecatalog.model.ImportJob;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The indexes behind every data service query. They are ensured at startup, after which $indexStats is used to
+ * report managed indexes that are missing, indexes nobody manages and indexes not used since the server started.
+ */
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class MongoIndexConfig {
+    private static final String ID_INDEX = "_id_";
+
+    // findByIdAndOrganizationId and findAndDelete are served by the _id index
+    private static final Map<Class<?>, List<Index>> MANAGED_INDEXES = Map.of(
+            DataService.class, List.of(
+                    // findAllByOrganizationIdOrderByCreatedDesc and findPage
+                    new Index().on("organizationId", Sort.Direction.ASC).on("created", Sort.Direction.DESC).on("_id", Sort.Direction.DESC),
+                    // findAllByStatus, findAllByOrganizationIdAndStatus, findPublishedPage and the count of findPublishedVersion
+                    new Index().on("status", Sort.Direction.ASC).on("organizationId", Sort.Direction.ASC).on("_id", Sort.Direction.ASC),
+                    // findPublishedChanges, for data services modified and for those only created, and findPublishedVersion
+                    // across catalogs
+                    new Index().on("status", Sort.Direction.ASC).on("modified", Sort.Direction.ASC).on("_id", Sort.Direction.ASC),
+                    new Index().on("status", Sort.Direction.ASC).on("created", Sort.Direction.ASC).on("_id", Sort.Direction.ASC),
+                    // findPublishedVersion of a catalog
+                    new Index().on("organizationId", Sort.Direction.ASC).on("status", Sort.Direction.ASC).on("modified", Sort.Direction.ASC),
+                    new Index().on("organizationId", Sort.Direction.ASC).on("status", Sort.Direction.ASC).on("created", Sort.Direction.ASC),
+                    // findImportedEndpointDescriptions and findAllImportedFrom
+                    new Index().on("imported", Sort.Direction.ASC).on("endpointDescriptions", Sort.Direction.ASC)),
+            DataServiceTombstone.class, List.of(
+                    // findChanges and findFirstByOrderByDeletedDesc
+                    new Index().on("deleted", Sort.Direction.ASC).on("_id", Sort.Direction.ASC),
+                    // findFirstByOrganizationIdOrderByDeletedDesc
+                    new Index().on("organizationId", Sort.Direction.ASC).on("deleted", Sort.Direction.DESC)),
+            ImportJob.class, List.of(
+                    // finished jobs are kept for a week for clients to poll
+                    new Index().on("finished", Sort.Direction.ASC).expire(Duration.ofDays(7)),
+                    // unfinished jobs expire too, in case no instance is left to finish them
+                    new Index().on("expires", Sort.Direction.ASC).expire(Duration.ZERO),
+                    // failUnfinished
+                    new Index().on("owner", Sort.Direction.ASC).on("state", Sort.Direction.ASC),
+                    // failAbandoned
+                    new Index().on("state", Sort.Direction.ASC).on("created", Sort.Direction.ASC)));
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        Flux.fromIterable(MANAGED_INDEXES.entrySet())
+                .concatMap(entry -> ensureIndexes(entry.getKey(), entry.getValue()))
+                .subscribe(
+                        collection -> log.debug("Ensured indexes on {}", collection),
+                        error -> log.error("Failed to ensure indexes", error));
+    }
+
+    private Mono<String> ensureIndexes(Class<?> entityClass, List<Index> indexes) {
+        String collection = mongoTemplate.getCollectionName(entityClass);
+        Set<String> managed = indexes.stream().map(MongoIndexConfig::indexName).collect(Collectors.toSet());
+        return Flux.fromIterable(indexes)
+                .concatMap(index -> mongoTemplate.indexOps(entityClass).ensureIndex(index))
+                .then(reportIndexStats(collection, managed))
+                .thenReturn(collection);
+    }
+
+    private Mono<Void> reportIndexStats(String collection, Set<String> managed) {
+        return mongoTemplate.getCollection(collection)
+                .flatMapMany(mongoCollection -> mongoCollection.aggregate(List.of(new Document("$indexStats", new Document()))))
+                .collectList()
+                .doOnNext(stats -> {
+                    Set<String> existing = stats.stream().map(stat -> stat.getString("name")).collect(Collectors.toSet());
+                    managed.stream()
+                            .filter(name -> !existing.contains(name))
+                            .forEach(name -> log.warn("Managed index {} is missing on {}", name, collection));
+
+                    stats.forEach(stat -> {
+                        String name = stat.getString("name");
+                        if (!managed.contains(name) && !ID_INDEX.equals(name)) {
+                            log.warn("Index {} on {} is not managed by the application", name, collection);
+                        }
+                        Document accesses = stat.get("accesses", Document.class);
+                        if (accesses != null && accesses.get("ops", Number.class).longValue() == 0) {
+                            log.info("Index {} on {} has not been used since {}", name, collection, accesses.get("since"));
+                        }
+                    });
+                })
+                .onErrorResume(error -> {
+                    log.warn("Could not read index statistics for {}", collection, error);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * The name Mongo gives an index that is not named explicitly, e.g. organizationId_1_created_-1.
+     */
+    private static String indexName(Index index) {
+        return index.getIndexKeys().entrySet().stream()
+                .map(key -> key.getKey() + "_" + key.getValue())
+                .collect(Collectors.joining("_"));
+    }
+}
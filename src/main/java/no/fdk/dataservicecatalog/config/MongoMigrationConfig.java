@@ -0,0 +1,51 @@
+package no.fdk.dataservicecatalog.config;
+
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.model.CatalogRegistration;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.Status;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Brings documents saved by earlier versions of the application up to date at startup.
+ */
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class MongoMigrationConfig {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    // data services saved before they were versioned; until this has run, saves initialise the version one at a time
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialiseDocumentVersions() {
+        mongoTemplate.updateMulti(Query.query(Criteria.where("documentVersion").exists(false)),
+                        Update.update("documentVersion", 0L), DataService.class)
+                .map(UpdateResult::getModifiedCount)
+                .subscribe(
+                        count -> log.info("Initialised documentVersion on {} data services", count),
+                        error -> log.error("Failed to initialise documentVersion on data services", error));
+    }
+
+    // catalogs that published before the registry existed already have their data source
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerPublishedCatalogs() {
+        mongoTemplate.findDistinct(Query.query(Criteria.where("status").is(Status.PUBLISHED)), "organizationId",
+                        DataService.class, String.class)
+                .flatMap(organizationId -> mongoTemplate.upsert(Query.query(Criteria.where("_id").is(organizationId)),
+                        new Update().setOnInsert("dataSourceCreated", true), CatalogRegistration.class), 8)
+                .filter(result -> result.getUpsertedId() != null)
+                .count()
+                .subscribe(
+                        count -> log.info("Registered {} catalogs with published data services", count),
+                        error -> log.error("Failed to register catalogs with published data services", error));
+    }
+}
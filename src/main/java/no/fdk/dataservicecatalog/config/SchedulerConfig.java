@@ -0,0 +1,64 @@
+package no.fdk.dataservicecatalog.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@EnableScheduling
+public class SchedulerConfig {
+
+    /**
+     * Runs RDF model building and serialisation, keeping CPU heavy exports off the event loop.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler rdfScheduler(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        var properties = applicationProperties.getRdfScheduler();
+        return boundedScheduler("rdf", properties.getThreads(), properties.getQueueCapacity(), meterRegistry);
+    }
+
+    /**
+     * Runs API specification parsing, which resolves references and converts Swagger documents, off the thread that
+     * received the specification.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler parseScheduler(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        var properties = applicationProperties.getParseScheduler();
+        return boundedScheduler("parse", properties.getThreads(), properties.getQueueCapacity(), meterRegistry);
+    }
+
+    /**
+     * A fixed number of threads named after the scheduler, with its executor metrics tagged by the name. Work beyond
+     * the queue capacity is rejected, and counted as {@code <name>.scheduler.rejected}, rather than queued without
+     * bounds.
+     */
+    private static Scheduler boundedScheduler(String name, int threads, int queueCapacity, MeterRegistry meterRegistry) {
+        Counter rejected = Counter.builder(name + ".scheduler.rejected")
+                .description("Tasks rejected because the scheduler queue was full")
+                .register(meterRegistry);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory(name + "-"),
+                (task, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException(name + " scheduler queue is full");
+                });
+
+        return Schedulers.fromExecutorService(ExecutorServiceMetrics.monitor(meterRegistry, executor, name), name);
+    }
+}
@@ -4,6 +4,7 @@ import no.fdk.dataservicecatalog.security.PermissionManager;
 import no.fdk.dataservicecatalog.security.RDFMatcher;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
@@ -29,6 +30,7 @@ public class SecurityConfig {
         corsConfig.addAllowedMethod(HttpMethod.PATCH);
         corsConfig.addAllowedMethod(HttpMethod.DELETE);
         corsConfig.setAllowedOrigins(Collections.singletonList("*"));
+        corsConfig.addExposedHeader(HttpHeaders.ETAG);
 
         UrlBasedCorsConfigurationSource source =
                 new UrlBasedCorsConfigurationSource();
@@ -45,6 +47,8 @@ public class SecurityConfig {
                 .pathMatchers(HttpMethod.OPTIONS).permitAll()
                 .pathMatchers(HttpMethod.GET, "/ping").permitAll()
                 .pathMatchers(HttpMethod.GET, "/ready").permitAll()
+                .pathMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+                .pathMatchers(HttpMethod.GET, "/actuator/prometheus").authenticated()
                 .matchers(new RDFMatcher()).permitAll()
                 .pathMatchers(HttpMethod.DELETE)
                     .access((PermissionManager.of("organization", "write")))
@@ -23,6 +23,7 @@ public class WebConfig implements WebFluxConfigurer {
     @Bean
     public RouterFunction<ServerResponse> catalogRouter(CatalogHandler catalogHandler) {
         return route(GET("/catalogs").and(rdfAccept()), catalogHandler::listCatalogs)
+                .andRoute(GET("/catalogs/changes").and(rdfAccept()), catalogHandler::listChanges)
                 .andRoute(GET("/catalogs/{catalogId}").and(rdfAccept()), catalogHandler::getCatalog)
                 .andRoute(GET("/catalogs/{catalogId}/dataservices/{dataServiceId}").and(rdfAccept()), catalogHandler::getDataService);
     }
@@ -35,8 +36,11 @@ public class WebConfig implements WebFluxConfigurer {
                 .andRoute(PATCH("/catalogs/{catalogId}/dataservices/{dataServiceId}"), dataServiceRegistrationHandler::patch)
                 .andRoute(DELETE("/catalogs/{catalogId}/dataservices/{dataServiceId}"), dataServiceRegistrationHandler::delete)
 
+                .andRoute(POST("/catalogs/{catalogId}/dataservices/bulk").and(contentType(MediaType.APPLICATION_NDJSON)), dataServiceRegistrationHandler::bulk)
+                .andRoute(POST("/catalogs/{catalogId}/dataservices/bulk-import"), dataServiceRegistrationHandler::bulkImport)
                 .andRoute(POST("/catalogs/{catalogId}/dataservices"), dataServiceRegistrationHandler::importByUrl)
-                .andRoute(POST("/catalogs/{catalogId}/dataservices/{dataServiceId}/import"), dataServiceRegistrationHandler::editByUrl);
+                .andRoute(POST("/catalogs/{catalogId}/dataservices/{dataServiceId}/import"), dataServiceRegistrationHandler::editByUrl)
+                .andRoute(GET("/catalogs/{catalogId}/import-jobs/{jobId}"), dataServiceRegistrationHandler::getImportJob);
     }
 
     private RequestPredicate rdfAccept() {
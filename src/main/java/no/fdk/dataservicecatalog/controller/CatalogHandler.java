@@ -2,51 +2,247 @@ package no.fdk.dataservicecatalog.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.model.CatalogVersion;
+import no.fdk.dataservicecatalog.model.ChangeCursor;
+import no.fdk.dataservicecatalog.model.PageCursor;
+import no.fdk.dataservicecatalog.service.CatalogCache;
 import no.fdk.dataservicecatalog.service.DcatApNoModelService;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.riot.Lang;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class CatalogHandler {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_CHANGES_PAGE_SIZE = 500;
+
     private final DcatApNoModelService dcatApNoModelService;
+    private final CatalogCache catalogCache;
 
     public Mono<ServerResponse> listCatalogs(ServerRequest serverRequest) {
         Lang jenaLang = dcatApNoModelService.jenaLangFromAcceptHeader(serverRequest.headers().accept());
-        log.info("Starting to build catalogs model");
-        return dcatApNoModelService
-                .buildCatalogsModel()
-                .doOnSuccess(model -> log.info("Successfully built catalogs model"))
-                .doOnError(error -> log.error("Failed to build catalogs model", error))
-                .flatMap(model -> ok().bodyValue(dcatApNoModelService.serialise(model, jenaLang)));
+        if (serverRequest.queryParam("pageSize").isPresent()) {
+            return pagedResponse(serverRequest, null, jenaLang);
+        }
+        DataBufferFactory bufferFactory = serverRequest.exchange().getResponse().bufferFactory();
+        return conditionalResponse(serverRequest, CatalogCache.Key.catalogs(jenaLang), dcatApNoModelService.findCatalogsVersion(), (cacheKey, response) -> {
+            if (dcatApNoModelService.isStreamable(jenaLang)) {
+                return rdfResponse(response, jenaLang, catalogCache.get(cacheKey, () -> {
+                    log.info("Starting to stream catalogs");
+                    return dcatApNoModelService
+                            .streamCatalogs(jenaLang, bufferFactory)
+                            .doOnComplete(() -> log.info("Successfully streamed catalogs"))
+                            .doOnError(error -> log.error("Failed to stream catalogs", error));
+                }, bufferFactory));
+            }
+            return rdfResponse(response, jenaLang, catalogCache.get(cacheKey, () -> {
+                log.info("Starting to build catalogs model");
+                return serialise(dcatApNoModelService
+                        .buildCatalogsModel()
+                        .doOnSuccess(model -> log.info("Successfully built catalogs model"))
+                        .doOnError(error -> log.error("Failed to build catalogs model", error)), jenaLang, bufferFactory);
+            }, bufferFactory));
+        });
     }
 
     public Mono<ServerResponse> getCatalog(ServerRequest serverRequest) {
         String catalogId = serverRequest.pathVariable("catalogId");
         Lang jenaLang = dcatApNoModelService.jenaLangFromAcceptHeader(serverRequest.headers().accept());
-        log.info("Starting to build catalog model for catalog with ID {}", catalogId);
-        return dcatApNoModelService
-                .buildCatalogModel(catalogId)
-                .doOnSuccess(model -> log.info("Successfully built catalog model for catalog with ID {}", catalogId))
-                .doOnError(error -> log.info("Failed to build catalog model for catalog with ID {}", catalogId, error))
-                .flatMap(model -> ok().bodyValue(dcatApNoModelService.serialise(model, jenaLang)));
+        if (serverRequest.queryParam("pageSize").isPresent()) {
+            return pagedResponse(serverRequest, catalogId, jenaLang);
+        }
+        DataBufferFactory bufferFactory = serverRequest.exchange().getResponse().bufferFactory();
+        return conditionalResponse(serverRequest, CatalogCache.Key.catalog(catalogId, jenaLang), dcatApNoModelService.findCatalogVersion(catalogId), (cacheKey, response) ->
+                rdfResponse(response, jenaLang, catalogCache.get(cacheKey, () -> {
+                    log.info("Starting to build catalog model for catalog with ID {}", catalogId);
+                    return serialise(dcatApNoModelService
+                            .buildCatalogModel(catalogId)
+                            .doOnSuccess(model -> log.info("Successfully built catalog model for catalog with ID {}", catalogId))
+                            .doOnError(error -> log.info("Failed to build catalog model for catalog with ID {}", catalogId, error)), jenaLang, bufferFactory);
+                }, bufferFactory)));
     }
 
     public Mono<ServerResponse> getDataService(ServerRequest serverRequest) {
+        String catalogId = serverRequest.pathVariable("catalogId");
         String dataServiceId = serverRequest.pathVariable("dataServiceId");
         Lang jenaLang = dcatApNoModelService.jenaLangFromAcceptHeader(serverRequest.headers().accept());
-        log.info("Starting to build model for data service with ID {}", dataServiceId);
+        DataBufferFactory bufferFactory = serverRequest.exchange().getResponse().bufferFactory();
+        return conditionalResponse(serverRequest, CatalogCache.Key.dataService(catalogId, dataServiceId, jenaLang), dcatApNoModelService.findDataServiceVersion(dataServiceId), (cacheKey, response) ->
+                rdfResponse(response, jenaLang, catalogCache.get(cacheKey, () -> {
+                    log.info("Starting to build model for data service with ID {}", dataServiceId);
+                    return serialise(dcatApNoModelService
+                            .buildDataServiceModel(dataServiceId)
+                            .doOnSuccess(model -> log.info("Successfully built model for data service with ID {}", dataServiceId))
+                            .doOnError(error -> log.info("Failed to build model for data service with ID {}", dataServiceId, error)), jenaLang, bufferFactory);
+                }, bufferFactory)));
+    }
+
+    public Mono<ServerResponse> listChanges(ServerRequest serverRequest) {
+        Lang jenaLang = dcatApNoModelService.jenaLangFromAcceptHeader(serverRequest.headers().accept());
+        ChangeCursor since;
+        int pageSize;
+        try {
+            since = parseSince(serverRequest.queryParam("since").orElseThrow());
+            pageSize = serverRequest.queryParam("pageSize").map(Integer::parseInt).orElse(DEFAULT_CHANGES_PAGE_SIZE);
+        } catch (RuntimeException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "since must be a timestamp or a token from a previous response"));
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("pageSize must be between 1 and %d", MAX_PAGE_SIZE)));
+        }
+
+        log.info("Starting to build changes model after {}", since);
+        DataBufferFactory bufferFactory = serverRequest.exchange().getResponse().bufferFactory();
         return dcatApNoModelService
-                .buildDataServiceModel(dataServiceId)
-                .doOnSuccess(model -> log.info("Successfully built model for data service with ID {}", dataServiceId))
-                .doOnError(error -> log.info("Failed to build model for data service with ID {}", dataServiceId, error))
-                .flatMap(model -> ok().bodyValue(dcatApNoModelService.serialise(model, jenaLang)));
+                .buildChangesModel(since, pageSize)
+                .doOnSuccess(changes -> log.info("Successfully built changes model after {}", since))
+                .doOnError(error -> log.error("Failed to build changes model after {}", since, error))
+                .flatMap(changes -> rdfResponse(
+                        ok().header(HttpHeaders.LINK, String.format("<%s?since=%s&pageSize=%d>; rel=\"next\"",
+                                serverRequest.path(), changes.getNext().encode(), pageSize)),
+                        jenaLang,
+                        dcatApNoModelService.write(changes.getModel(), jenaLang, bufferFactory)))
+                .onErrorMap(RejectedExecutionException.class, this::serviceUnavailable);
+    }
+
+    private Mono<ServerResponse> pagedResponse(ServerRequest serverRequest, String catalogId, Lang jenaLang) {
+        int pageSize;
+        PageCursor after;
+        PageCursor before;
+        try {
+            pageSize = Integer.parseInt(serverRequest.queryParam("pageSize").orElseThrow());
+            after = PageCursor.decode(serverRequest.queryParam("after").orElse(null));
+            before = PageCursor.decode(serverRequest.queryParam("before").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid page parameters"));
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("pageSize must be between 1 and %d", MAX_PAGE_SIZE)));
+        }
+        if (after != null && before != null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Only one of after and before can be given"));
+        }
+
+        log.info("Starting to build page of catalogs model for catalog with ID {}", catalogId);
+        DataBufferFactory bufferFactory = serverRequest.exchange().getResponse().bufferFactory();
+        return rdfResponse(ok(), jenaLang, serialise(dcatApNoModelService
+                .buildCatalogsPageModel(catalogId, pageSize, after, before)
+                .doOnSuccess(model -> log.info("Successfully built page of catalogs model for catalog with ID {}", catalogId))
+                .doOnError(error -> log.error("Failed to build page of catalogs model for catalog with ID {}", catalogId, error)), jenaLang, bufferFactory));
+    }
+
+    /**
+     * Answers with 304 when the request validators match the current version of the resource, without building
+     * anything. Otherwise the response is rendered with ETag and Last-Modified, and cached under the same version.
+     * The version is looked up before the cache, so every request costs its queries (the published count and latest
+     * timestamps, and the latest tombstone), including a 304 or a cache hit. They read indexes only.
+     */
+    private Mono<ServerResponse> conditionalResponse(ServerRequest serverRequest, CatalogCache.Key cacheKey, Mono<CatalogVersion> catalogVersion,
+                                                     BiFunction<CatalogCache.Key, ServerResponse.BodyBuilder, Mono<ServerResponse>> render) {
+        return catalogVersion.flatMap(version -> {
+            String eTag = eTag(cacheKey, version);
+            Instant lastModified = lastModified(version);
+            Mono<ServerResponse> notModified = lastModified != null
+                    ? serverRequest.checkNotModified(lastModified, eTag)
+                    : serverRequest.checkNotModified(eTag);
+            return notModified.switchIfEmpty(Mono.defer(() -> {
+                ServerResponse.BodyBuilder response = ok().eTag(eTag);
+                if (lastModified != null) {
+                    response.lastModified(lastModified);
+                }
+                return render.apply(cacheKey.withVersion(eTag), response);
+            }));
+        });
+    }
+
+    /**
+     * Accepts an ISO-8601 timestamp, with or without offset, or the opaque token handed out in the next link.
+     */
+    private ChangeCursor parseSince(String since) {
+        try {
+            return new ChangeCursor(OffsetDateTime.parse(since).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime(), null);
+        } catch (DateTimeParseException e) {
+            // not a timestamp with offset
+        }
+        try {
+            return new ChangeCursor(LocalDateTime.parse(since), null);
+        } catch (DateTimeParseException e) {
+            // not a local timestamp
+        }
+        return ChangeCursor.decode(since);
+    }
+
+    /**
+     * A fingerprint of the version, not a hash of the content: how many data services are published, and when the
+     * latest of them was created, modified and deleted. Any write to a published data service moves one of these.
+     */
+    private String eTag(CatalogCache.Key cacheKey, CatalogVersion version) {
+        String fingerprint = String.join("|",
+                cacheKey.toString(),
+                String.valueOf(version.getCount()),
+                String.valueOf(version.getCreated()),
+                String.valueOf(version.getModified()),
+                String.valueOf(version.getDeleted()));
+        return "\"" + DigestUtils.md5DigestAsHex(fingerprint.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    private Instant lastModified(CatalogVersion version) {
+        return Stream.of(version.getCreated(), version.getModified(), version.getDeleted())
+                .filter(Objects::nonNull)
+                .max(LocalDateTime::compareTo)
+                .map(dateTime -> dateTime.atZone(ZoneId.systemDefault()).toInstant())
+                .orElse(null);
+    }
+
+    private Flux<DataBuffer> serialise(Mono<Model> model, Lang jenaLang, DataBufferFactory bufferFactory) {
+        return model.flatMapMany(m -> dcatApNoModelService.write(m, jenaLang, bufferFactory));
+    }
+
+    /**
+     * The response is committed with the first buffer of the body, and every body builds its model or starts its
+     * stream on the RDF scheduler before that buffer, so a full scheduler is answered with 503. A streamed export
+     * rejected after it has started can only be cut off.
+     */
+    private Mono<ServerResponse> rdfResponse(ServerResponse.BodyBuilder response, Lang jenaLang, Flux<DataBuffer> body) {
+        return response
+                .contentType(rdfMediaType(jenaLang))
+                .body(BodyInserters.fromDataBuffers(body.onErrorMap(RejectedExecutionException.class, this::serviceUnavailable)));
+    }
+
+    private ResponseStatusException serviceUnavailable(RejectedExecutionException e) {
+        log.warn("Rejected RDF export", e);
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent exports, try again later");
+    }
+
+    private MediaType rdfMediaType(Lang jenaLang) {
+        return new MediaType(MediaType.valueOf(jenaLang.getHeaderString()), StandardCharsets.UTF_8);
     }
 }
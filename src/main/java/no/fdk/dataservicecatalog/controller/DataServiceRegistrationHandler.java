@@ -1,15 +1,32 @@
 package no.fdk.dataservicecatalog.controller;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecificationSource;
+import no.fdk.dataservicecatalog.model.BulkResult;
+import no.fdk.dataservicecatalog.model.CreatedCursor;
 import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.ImportJob;
 import no.fdk.dataservicecatalog.service.DataServiceService;
+import no.fdk.dataservicecatalog.service.ImportJobService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 import static org.springframework.web.reactive.function.server.ServerResponse.*;
 
 @Slf4j
@@ -17,10 +34,56 @@ import static org.springframework.web.reactive.function.server.ServerResponse.*;
 @RequiredArgsConstructor
 public class DataServiceRegistrationHandler {
 
+    private static final int MAX_LIMIT = 1000;
+    private static final int MAX_BULK_IMPORT_SOURCES = 500;
+
+    private static final MediaType MERGE_PATCH_JSON = MediaType.valueOf("application/merge-patch+json");
+
+    // RFC 7240 preference asking for an import job instead of waiting for the import
+    private static final String RESPOND_ASYNC = "respond-async";
+
     private final DataServiceService dataServiceService;
+    private final ImportJobService importJobService;
 
     public Mono<ServerResponse> all(ServerRequest serverRequest) {
-        return ok().body(dataServiceService.getAllDataServices(serverRequest.pathVariable("catalogId")), DataService.class);
+        var catalogId = serverRequest.pathVariable("catalogId");
+        var queryParams = serverRequest.queryParams();
+        if (!queryParams.containsKey("limit") && !queryParams.containsKey("after") && !queryParams.containsKey("fields")) {
+            return ok().body(dataServiceService.getAllDataServices(catalogId), DataService.class);
+        }
+
+        int limit;
+        CreatedCursor after;
+        Set<String> fields;
+        try {
+            limit = serverRequest.queryParam("limit").map(Integer::parseInt).orElse(0);
+            after = CreatedCursor.decode(serverRequest.queryParam("after").orElse(null));
+            fields = serverRequest.queryParam("fields").map(this::parseFields).orElse(Set.of());
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid page parameters"));
+        }
+        if (limit < 0 || limit > MAX_LIMIT || (limit == 0 && queryParams.containsKey("limit"))) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("limit must be between 1 and %d", MAX_LIMIT)));
+        }
+        if (limit == 0) {
+            return ok().body(dataServiceService.getDataServices(catalogId, after, 0, fields), DataService.class);
+        }
+
+        // one more than the limit tells whether there is a next page
+        return dataServiceService.getDataServices(catalogId, after, limit + 1, fields)
+                .collectList()
+                .flatMap(page -> {
+                    if (page.size() <= limit) {
+                        return ok().bodyValue(page);
+                    }
+                    var next = UriComponentsBuilder.fromPath(serverRequest.path())
+                            .queryParam("limit", limit)
+                            .queryParam("after", CreatedCursor.of(page.get(limit - 1)).encode())
+                            .queryParamIfPresent("fields", serverRequest.queryParam("fields"))
+                            .toUriString();
+                    return ok().header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next))
+                            .bodyValue(page.subList(0, limit));
+                });
     }
 
     public Mono<ServerResponse> create(ServerRequest serverRequest) {
@@ -30,9 +93,15 @@ public class DataServiceRegistrationHandler {
                 );
     }
 
+    public Mono<ServerResponse> bulk(ServerRequest serverRequest) {
+        var catalogId = serverRequest.pathVariable("catalogId");
+        return ok().contentType(MediaType.APPLICATION_NDJSON)
+                .body(dataServiceService.bulkUpsert(serverRequest.bodyToFlux(String.class), catalogId), BulkResult.class);
+    }
+
     public Mono<ServerResponse> get(ServerRequest serverRequest) {
         return dataServiceService.findById(serverRequest.pathVariable("dataServiceId"), serverRequest.pathVariable("catalogId"))
-                .flatMap(dataService -> ok().body(Mono.just(dataService), DataService.class))
+                .flatMap(this::okWithETag)
                 .switchIfEmpty(notFound().build());
     }
 
@@ -46,12 +115,27 @@ public class DataServiceRegistrationHandler {
     public Mono<ServerResponse> patch(ServerRequest serverRequest) {
         var dataServiceId = serverRequest.pathVariable("dataServiceId");
         var catalogId = serverRequest.pathVariable("catalogId");
-        return serverRequest.bodyToMono(DataService.class)
-                .flatMap(updated -> ok().body(dataServiceService.update(dataServiceId, catalogId, updated), DataService.class));
+        var expectedVersions = ifMatchVersions(serverRequest);
+        var isMergePatch = serverRequest.headers().contentType()
+                .map(MERGE_PATCH_JSON::equalsTypeAndSubtype)
+                .orElse(false);
+
+        Mono<DataService> patched = isMergePatch
+                ? serverRequest.bodyToMono(ObjectNode.class)
+                        .flatMap(mergePatch -> dataServiceService.patch(dataServiceId, catalogId, mergePatch, expectedVersions))
+                : serverRequest.bodyToMono(DataService.class)
+                        .flatMap(updated -> dataServiceService.update(dataServiceId, catalogId, updated, expectedVersions));
+        return patched.flatMap(this::okWithETag)
+                .switchIfEmpty(notFound().build());
     }
 
     public Mono<ServerResponse> importByUrl(ServerRequest serverRequest) {
         var catalogId = serverRequest.pathVariable("catalogId");
+        if (prefersAsync(serverRequest)) {
+            return serverRequest.bodyToMono(ApiSpecificationSource.class)
+                    .flatMap(source -> importJobService.submit(source, catalogId, null))
+                    .flatMap(this::acceptedJob);
+        }
         return serverRequest.bodyToMono(ApiSpecificationSource.class)
                 .flatMap(apiSpecificationSource -> ok().body(dataServiceService.importFromSpecification(apiSpecificationSource, catalogId), DataService.class));
     }
@@ -59,7 +143,89 @@ public class DataServiceRegistrationHandler {
     public Mono<ServerResponse> editByUrl(ServerRequest serverRequest) {
         var dataServiceId = serverRequest.pathVariable("dataServiceId");
         var catalogId = serverRequest.pathVariable("catalogId");
+        if (prefersAsync(serverRequest)) {
+            return serverRequest.bodyToMono(ApiSpecificationSource.class)
+                    .flatMap(source -> importJobService.submit(source, catalogId, dataServiceId))
+                    .flatMap(this::acceptedJob);
+        }
         return serverRequest.bodyToMono(ApiSpecificationSource.class)
                 .flatMap(source -> ok().body(dataServiceService.importFromSpecification(dataServiceId, catalogId, source), DataService.class));
     }
+
+    public Mono<ServerResponse> bulkImport(ServerRequest serverRequest) {
+        var catalogId = serverRequest.pathVariable("catalogId");
+        return serverRequest.bodyToFlux(ApiSpecificationSource.class)
+                .collectList()
+                .flatMap(sources -> {
+                    if (sources.isEmpty() || sources.size() > MAX_BULK_IMPORT_SOURCES) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                String.format("between 1 and %d specifications can be imported at once", MAX_BULK_IMPORT_SOURCES)));
+                    }
+                    return ok().contentType(MediaType.APPLICATION_NDJSON)
+                            .body(dataServiceService.bulkImport(sources, catalogId), BulkResult.class);
+                });
+    }
+
+    public Mono<ServerResponse> getImportJob(ServerRequest serverRequest) {
+        return importJobService.findById(serverRequest.pathVariable("jobId"), serverRequest.pathVariable("catalogId"))
+                .flatMap(job -> ok().bodyValue(job))
+                .switchIfEmpty(notFound().build());
+    }
+
+    private boolean prefersAsync(ServerRequest serverRequest) {
+        return serverRequest.headers().header("Prefer").stream()
+                .flatMap(prefer -> Arrays.stream(prefer.split(",")))
+                .anyMatch(preference -> RESPOND_ASYNC.equalsIgnoreCase(preference.trim()));
+    }
+
+    private Mono<ServerResponse> acceptedJob(ImportJob job) {
+        return accepted()
+                .location(URI.create(String.format("/catalogs/%s/import-jobs/%s", job.getOrganizationId(), job.getId())))
+                .header("Preference-Applied", RESPOND_ASYNC)
+                .bodyValue(job);
+    }
+
+    private Set<String> parseFields(String fields) {
+        return Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    private Mono<ServerResponse> okWithETag(DataService dataService) {
+        var response = ok();
+        if (dataService.getDocumentVersion() != null) {
+            response.eTag(dataService.getDocumentVersion().toString());
+        }
+        return response.body(Mono.just(dataService), DataService.class);
+    }
+
+    /**
+     * The versions the If-Match entity tags name, or null if the request has no precondition. If-Match requires strong
+     * comparison, so weak and malformed entity tags match no version.
+     */
+    private Set<Long> ifMatchVersions(ServerRequest serverRequest) {
+        List<String> eTags = serverRequest.headers().header(HttpHeaders.IF_MATCH).stream()
+                .flatMap(header -> Arrays.stream(header.split(",")))
+                .map(String::trim)
+                .filter(eTag -> !eTag.isEmpty())
+                .collect(Collectors.toList());
+        if (eTags.isEmpty() || eTags.contains("*")) {
+            return null;
+        }
+        return eTags.stream()
+                .filter(eTag -> eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\""))
+                .map(eTag -> eTag.substring(1, eTag.length() - 1))
+                .map(this::parseVersion)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    private Long parseVersion(String version) {
+        try {
+            return Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
@@ -9,7 +9,7 @@ import no.fdk.dataservicecatalog.dto.shared.apispecification.ExternalDocumentati
 @Data
 @NoArgsConstructor
 @JsonInclude(JsonInclude.Include.NON_NULL)
-class Operation {
+public class Operation {
 
     private String summary;
     private String description;
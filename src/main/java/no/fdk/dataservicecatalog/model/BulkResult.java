@@ -0,0 +1,37 @@
+package no.fdk.dataservicecatalog.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+import lombok.With;
+
+/**
+ * Outcome for one line of a bulk request. Lines are numbered from 1.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkResult {
+
+    public enum Outcome {
+        CREATED,
+        UPDATED,
+        FAILED
+    }
+
+    @With
+    long line;
+    String id;
+    Outcome outcome;
+    String error;
+
+    public static BulkResult created(String id) {
+        return new BulkResult(0, id, Outcome.CREATED, null);
+    }
+
+    public static BulkResult updated(String id) {
+        return new BulkResult(0, id, Outcome.UPDATED, null);
+    }
+
+    public static BulkResult failed(String id, String error) {
+        return new BulkResult(0, id, Outcome.FAILED, error);
+    }
+}
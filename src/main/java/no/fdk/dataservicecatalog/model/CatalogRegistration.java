@@ -0,0 +1,19 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "catalog-registry")
+public class CatalogRegistration {
+    @Id
+    private String organizationId;
+    private boolean dataSourceCreated;
+}
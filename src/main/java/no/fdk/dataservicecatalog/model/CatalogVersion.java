@@ -0,0 +1,23 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.With;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogVersion {
+    private long count;
+    private LocalDateTime created;
+    private LocalDateTime modified;
+    @With
+    private LocalDateTime deleted;
+
+    public CatalogVersion(long count, LocalDateTime created, LocalDateTime modified) {
+        this(count, created, modified, null);
+    }
+}
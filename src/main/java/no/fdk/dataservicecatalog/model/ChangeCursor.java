@@ -0,0 +1,58 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.Value;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * Position in the keyset ordering (changed, _id) of the changes feed, encoded as an opaque URL safe string. A cursor
+ * without id is a point in time, before every change made at that time.
+ */
+@Value
+public class ChangeCursor {
+    private static final String SEPARATOR = "\n";
+
+    // the order Mongo sorts _id in: strings before ObjectIds
+    private static final Comparator<String> ID_ORDER = Comparator
+            .comparing((String id) -> ObjectId.isValid(id))
+            .thenComparing(Comparator.naturalOrder());
+
+    public static final Comparator<ChangeCursor> ORDER = Comparator
+            .comparing(ChangeCursor::getChanged)
+            .thenComparing(ChangeCursor::getId, Comparator.nullsFirst(ID_ORDER));
+
+    LocalDateTime changed;
+    String id;
+
+    public static ChangeCursor of(DataService dataService) {
+        return new ChangeCursor(dataService.getModified() != null ? dataService.getModified() : dataService.getCreated(), dataService.getId());
+    }
+
+    public static ChangeCursor of(DataServiceTombstone tombstone) {
+        return new ChangeCursor(tombstone.getDeleted(), tombstone.getId());
+    }
+
+    public static ChangeCursor decode(String cursor) {
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = decoded.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid change cursor");
+        }
+        try {
+            String id = decoded.substring(separator + 1);
+            return new ChangeCursor(LocalDateTime.parse(decoded.substring(0, separator)), id.isEmpty() ? null : id);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid change cursor", e);
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((changed + SEPARATOR + (id != null ? id : "")).getBytes(StandardCharsets.UTF_8));
+    }
+}
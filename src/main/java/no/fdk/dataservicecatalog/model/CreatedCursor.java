@@ -0,0 +1,47 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in the keyset ordering (created desc, _id desc) of a catalog's data services, encoded as an opaque URL
+ * safe string. Data services without created sort last.
+ */
+@Value
+public class CreatedCursor {
+    private static final String SEPARATOR = "\n";
+
+    LocalDateTime created;
+    String id;
+
+    public static CreatedCursor of(DataService dataService) {
+        return new CreatedCursor(dataService.getCreated(), dataService.getId());
+    }
+
+    public static CreatedCursor decode(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = decoded.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid page cursor");
+        }
+        try {
+            String created = decoded.substring(0, separator);
+            return new CreatedCursor(created.isEmpty() ? null : LocalDateTime.parse(created), decoded.substring(separator + 1));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid page cursor", e);
+        }
+    }
+
+    public String encode() {
+        String created = this.created != null ? this.created.toString() : "";
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((created + SEPARATOR + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
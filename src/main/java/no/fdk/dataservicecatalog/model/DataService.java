@@ -1,6 +1,7 @@
 package no.fdk.dataservicecatalog.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -15,6 +16,7 @@ import no.fdk.dataservicecatalog.dto.shared.apispecification.info.License;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotEmpty;
@@ -85,4 +87,22 @@ public class DataService {
 
     private boolean imported = false;
 
+    //hash per imported field of what the specification mapped it to when it was last imported, so a refresh only
+    //writes the fields that changed upstream
+    @JsonIgnore
+    private Map<String, String> importedFields;
+
+    //N-Triples for the data service, rendered on write so exports don't have to rebuild it
+    @JsonIgnore
+    private String rdfFragment;
+
+    //renderer version and base URI the fragment was rendered with
+    @JsonIgnore
+    private String rdfFragmentFingerprint;
+
+    //optimistic concurrency, exposed to clients as ETag and checked against If-Match
+    @JsonIgnore
+    @Version
+    private Long documentVersion;
+
 }
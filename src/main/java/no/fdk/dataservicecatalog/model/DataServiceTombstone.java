@@ -0,0 +1,22 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "dataservice-tombstones")
+public class DataServiceTombstone {
+    @Id
+    private String id;
+    private String organizationId;
+    private LocalDateTime deleted;
+}
@@ -0,0 +1,50 @@
+package no.fdk.dataservicecatalog.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Document(collection = "import-jobs")
+public class ImportJob {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    @Id
+    private String id;
+    private String organizationId;
+    private String apiSpecUrl;
+    //the data service imported into, set when the job succeeds if the import creates a new one
+    private String dataServiceId;
+    private State state;
+    private String error;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime created;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime started;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime finished;
+    //the instance whose queue the job is in
+    @JsonIgnore
+    private String owner;
+    //when an unfinished job is removed, cleared when it finishes
+    @JsonIgnore
+    private LocalDateTime expires;
+}
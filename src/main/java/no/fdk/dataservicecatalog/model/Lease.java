@@ -0,0 +1,24 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "leases")
+public class Lease {
+    //the work the lease is for
+    @Id
+    private String name;
+    //the instance holding the lease
+    private String owner;
+    private LocalDateTime expires;
+}
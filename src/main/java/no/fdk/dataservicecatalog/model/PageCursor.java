@@ -0,0 +1,38 @@
+package no.fdk.dataservicecatalog.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the keyset ordering (organizationId, _id), encoded as an opaque URL safe string.
+ */
+@Value
+public class PageCursor {
+    private static final String SEPARATOR = "\n";
+
+    String organizationId;
+    String id;
+
+    public static PageCursor of(DataService dataService) {
+        return new PageCursor(dataService.getOrganizationId(), dataService.getId());
+    }
+
+    public static PageCursor decode(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = decoded.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid page cursor");
+        }
+        return new PageCursor(decoded.substring(0, separator), decoded.substring(separator + 1));
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((organizationId + SEPARATOR + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
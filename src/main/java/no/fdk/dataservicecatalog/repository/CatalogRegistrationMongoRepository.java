@@ -0,0 +1,7 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.CatalogRegistration;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+public interface CatalogRegistrationMongoRepository extends ReactiveMongoRepository<CatalogRegistration, String>, CatalogRegistrationMongoRepositoryCustom {
+}
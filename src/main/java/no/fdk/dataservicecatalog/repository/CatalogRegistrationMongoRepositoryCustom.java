@@ -0,0 +1,19 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.CatalogRegistration;
+import reactor.core.publisher.Mono;
+
+public interface CatalogRegistrationMongoRepositoryCustom {
+    /**
+     * Registers a publication in the catalog by marking its data source as created, in one atomic upsert. Returns the
+     * registration as it was before, or empty when the catalog had none, so the first publication is told by the
+     * registration it replaced.
+     */
+    Mono<CatalogRegistration> registerPublication(String organizationId);
+
+    /**
+     * Sets whether the catalog's data source is created, atomically. Returns the registration as it was before, or
+     * empty when the flag already had that value.
+     */
+    Mono<CatalogRegistration> setDataSourceCreated(String organizationId, boolean created);
+}
@@ -0,0 +1,33 @@
+package no.fdk.dataservicecatalog.repository;
+
+import lombok.RequiredArgsConstructor;
+import no.fdk.dataservicecatalog.model.CatalogRegistration;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+@RequiredArgsConstructor
+public class CatalogRegistrationMongoRepositoryCustomImpl implements CatalogRegistrationMongoRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Mono<CatalogRegistration> registerPublication(String organizationId) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(organizationId)),
+                new Update().set("dataSourceCreated", true),
+                FindAndModifyOptions.options().upsert(true).returnNew(false),
+                CatalogRegistration.class);
+    }
+
+    @Override
+    public Mono<CatalogRegistration> setDataSourceCreated(String organizationId, boolean created) {
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(organizationId).and("dataSourceCreated").ne(created)),
+                new Update().set("dataSourceCreated", created),
+                FindAndModifyOptions.options().returnNew(false),
+                CatalogRegistration.class);
+    }
+}
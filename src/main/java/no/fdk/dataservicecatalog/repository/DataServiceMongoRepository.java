@@ -6,10 +6,12 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface DataServiceMongoRepository extends ReactiveMongoRepository<DataService, String> {
+import java.util.Collection;
+
+public interface DataServiceMongoRepository extends ReactiveMongoRepository<DataService, String>, DataServiceMongoRepositoryCustom {
     Mono<DataService> findByIdAndOrganizationId(String dataServiceId, String organizationId);
-    Mono<Long> deleteByIdAndOrganizationId(String dataServiceId, String organizationId);
     Flux<DataService> findAllByOrganizationIdOrderByCreatedDesc(String organizationId);
     Flux<DataService> findAllByStatus(Status Status);
     Flux<DataService> findAllByOrganizationIdAndStatus(String organizationId, Status status);
+    Flux<DataService> findAllByOrganizationIdAndIdIn(String organizationId, Collection<String> dataServiceIds);
 }
@@ -0,0 +1,83 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.BulkResult;
+import no.fdk.dataservicecatalog.model.CatalogVersion;
+import no.fdk.dataservicecatalog.model.ChangeCursor;
+import no.fdk.dataservicecatalog.model.CreatedCursor;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.PageCursor;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+public interface DataServiceMongoRepositoryCustom {
+    /**
+     * Published data services ordered by (organizationId, _id), starting after {@code after}, or ending before
+     * {@code before} in descending order. {@code organizationId} may be null to page across all catalogs.
+     */
+    Flux<DataService> findPublishedPage(String organizationId, PageCursor after, PageCursor before, int limit);
+
+    /**
+     * Published data services ordered by when they last changed, their modified or else their created, and _id.
+     * Starts after {@code after} and ends at {@code until}.
+     */
+    Flux<DataService> findPublishedChanges(ChangeCursor after, LocalDateTime until, int limit);
+
+    /**
+     * How many data services are published, and when the latest of them was created and modified, read from indexes
+     * with a count and two single-document queries. {@code organizationId} may be null for all catalogs. Empty if none
+     * is published.
+     */
+    Mono<CatalogVersion> findPublishedVersion(String organizationId);
+
+    /**
+     * When the data service was created and modified, read with a single query of those fields. Empty unless it is
+     * published.
+     */
+    Mono<CatalogVersion> findPublishedVersionById(String dataServiceId);
+
+    /**
+     * Data services of a catalog ordered by (created desc, _id desc), starting after {@code after} if given. A limit of
+     * 0 means no limit. Only {@code fields} and what the ordering needs are read if {@code fields} is not empty.
+     */
+    Flux<DataService> findPage(String organizationId, CreatedCursor after, int limit, Set<String> fields);
+
+    /**
+     * The distinct endpoint descriptions of imported data services, which include the specification URLs they were
+     * imported from.
+     */
+    Flux<String> findImportedEndpointDescriptions();
+
+    /**
+     * Imported data services whose first endpoint description, the specification they were imported from, is
+     * {@code url}.
+     */
+    Flux<DataService> findAllImportedFrom(String url);
+
+    /**
+     * Applies the update in a single findAndModify and returns the modified data service. Empty if no data service
+     * matches, or if {@code documentVersion} is given and does not match the stored one.
+     */
+    Mono<DataService> updateFields(String dataServiceId, String organizationId, Long documentVersion, Update update);
+
+    /**
+     * Deletes the data service in a single findAndRemove and returns it as it was. Empty if there was none.
+     */
+    Mono<DataService> findAndDelete(String dataServiceId, String organizationId);
+
+    /**
+     * Sets documentVersion to 0 on a data service saved before data services were versioned, unless it has one by now.
+     */
+    Mono<Void> initialiseDocumentVersion(String dataServiceId, String organizationId);
+
+    /**
+     * Writes the data services of a catalog in one unordered bulkWrite. Data services with created set are inserted;
+     * the others replace the stored data service with the same id, keeping its created, or are inserted if there is
+     * none. The results are in the order of {@code dataServices}.
+     */
+    Mono<List<BulkResult>> bulkUpsert(String organizationId, List<DataService> dataServices);
+}
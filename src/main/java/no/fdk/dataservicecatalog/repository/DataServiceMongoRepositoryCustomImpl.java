@@ -0,0 +1,257 @@
+package no.fdk.dataservicecatalog.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.model.BulkResult;
+import no.fdk.dataservicecatalog.model.CatalogVersion;
+import no.fdk.dataservicecatalog.model.ChangeCursor;
+import no.fdk.dataservicecatalog.model.CreatedCursor;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.PageCursor;
+import no.fdk.dataservicecatalog.model.Status;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static no.fdk.dataservicecatalog.repository.IdCriteria.changedAfter;
+import static no.fdk.dataservicecatalog.repository.IdCriteria.idAfter;
+import static no.fdk.dataservicecatalog.repository.IdCriteria.idBefore;
+
+@Slf4j
+@RequiredArgsConstructor
+public class DataServiceMongoRepositoryCustomImpl implements DataServiceMongoRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Flux<DataService> findPublishedPage(String organizationId, PageCursor after, PageCursor before, int limit) {
+        Criteria criteria = Criteria.where("status").is(Status.PUBLISHED);
+        if (organizationId != null) {
+            criteria = criteria.and("organizationId").is(organizationId);
+        }
+
+        Sort.Direction direction = Sort.Direction.ASC;
+        if (after != null) {
+            criteria = criteria.orOperator(
+                    Criteria.where("organizationId").gt(after.getOrganizationId()),
+                    Criteria.where("organizationId").is(after.getOrganizationId()).andOperator(idAfter(after.getId())));
+        } else if (before != null) {
+            direction = Sort.Direction.DESC;
+            criteria = criteria.orOperator(
+                    Criteria.where("organizationId").lt(before.getOrganizationId()),
+                    Criteria.where("organizationId").is(before.getOrganizationId()).andOperator(idBefore(before.getId())));
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by(direction, "organizationId", "_id"))
+                .limit(limit);
+        return mongoTemplate.find(query, DataService.class);
+    }
+
+    @Override
+    public Flux<DataService> findPublishedChanges(ChangeCursor after, LocalDateTime until, int limit) {
+        Query modified = Query.query(Criteria.where("status").is(Status.PUBLISHED)
+                        .andOperator(changedAfter("modified", after, until)))
+                .with(Sort.by(Sort.Direction.ASC, "modified", "_id"))
+                .limit(limit);
+        // never modified since they were created
+        Query created = Query.query(Criteria.where("status").is(Status.PUBLISHED).and("modified").is(null)
+                        .andOperator(changedAfter("created", after, until)))
+                .with(Sort.by(Sort.Direction.ASC, "created", "_id"))
+                .limit(limit);
+        return Flux.merge(mongoTemplate.find(modified, DataService.class), mongoTemplate.find(created, DataService.class))
+                .sort(Comparator.comparing(ChangeCursor::of, ChangeCursor.ORDER))
+                .take(limit);
+    }
+
+    @Override
+    public Mono<CatalogVersion> findPublishedVersion(String organizationId) {
+        Criteria criteria = Criteria.where("status").is(Status.PUBLISHED);
+        if (organizationId != null) {
+            criteria = criteria.and("organizationId").is(organizationId);
+        }
+        return Mono.zip(mongoTemplate.count(Query.query(criteria), DataService.class),
+                        latest(criteria, "created", DataService::getCreated),
+                        latest(criteria, "modified", DataService::getModified))
+                .filter(version -> version.getT1() > 0)
+                .map(version -> new CatalogVersion(version.getT1(), version.getT2().orElse(null), version.getT3().orElse(null)));
+    }
+
+    @Override
+    public Mono<CatalogVersion> findPublishedVersionById(String dataServiceId) {
+        Query query = Query.query(Criteria.where("_id").is(dataServiceId).and("status").is(Status.PUBLISHED));
+        query.fields().include("created").include("modified");
+        return mongoTemplate.findOne(query, DataService.class)
+                .map(dataService -> new CatalogVersion(1, dataService.getCreated(), dataService.getModified()));
+    }
+
+    private Mono<Optional<LocalDateTime>> latest(Criteria criteria, String field, Function<DataService, LocalDateTime> value) {
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, field))
+                .limit(1);
+        query.fields().include(field);
+        return mongoTemplate.findOne(query, DataService.class)
+                .map(dataService -> Optional.ofNullable(value.apply(dataService)))
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    @Override
+    public Flux<DataService> findPage(String organizationId, CreatedCursor after, int limit, Set<String> fields) {
+        Criteria criteria = Criteria.where("organizationId").is(organizationId);
+        if (after != null && after.getCreated() != null) {
+            criteria = criteria.orOperator(
+                    Criteria.where("created").lt(after.getCreated()),
+                    Criteria.where("created").is(after.getCreated()).andOperator(idBefore(after.getId())),
+                    Criteria.where("created").is(null));
+        } else if (after != null) {
+            criteria = criteria.and("created").is(null).andOperator(idBefore(after.getId()));
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "created", "_id"))
+                .limit(limit);
+        if (!fields.isEmpty()) {
+            fields.forEach(query.fields()::include);
+            query.fields().include("created");
+        }
+        return mongoTemplate.find(query, DataService.class);
+    }
+
+    @Override
+    public Flux<String> findImportedEndpointDescriptions() {
+        return mongoTemplate.findDistinct(Query.query(Criteria.where("imported").is(true)), "endpointDescriptions",
+                DataService.class, String.class);
+    }
+
+    @Override
+    public Flux<DataService> findAllImportedFrom(String url) {
+        // endpointDescriptions matches any element and is served by the index, the first element is then checked
+        Criteria criteria = Criteria.where("imported").is(true).and("endpointDescriptions").is(url)
+                .and("endpointDescriptions.0").is(url);
+        return mongoTemplate.find(Query.query(criteria), DataService.class);
+    }
+
+    @Override
+    public Mono<DataService> updateFields(String dataServiceId, String organizationId, Long documentVersion, Update update) {
+        Criteria criteria = Criteria.where("_id").is(dataServiceId).and("organizationId").is(organizationId);
+        if (documentVersion != null) {
+            criteria = criteria.and("documentVersion").is(documentVersion);
+        }
+        return mongoTemplate.findAndModify(Query.query(criteria), update,
+                FindAndModifyOptions.options().returnNew(true), DataService.class);
+    }
+
+    @Override
+    public Mono<DataService> findAndDelete(String dataServiceId, String organizationId) {
+        Criteria criteria = Criteria.where("_id").is(dataServiceId).and("organizationId").is(organizationId);
+        return mongoTemplate.findAndRemove(Query.query(criteria), DataService.class);
+    }
+
+    @Override
+    public Mono<Void> initialiseDocumentVersion(String dataServiceId, String organizationId) {
+        Criteria criteria = Criteria.where("_id").is(dataServiceId).and("organizationId").is(organizationId)
+                .and("documentVersion").exists(false);
+        return mongoTemplate.updateFirst(Query.query(criteria), Update.update("documentVersion", 0L), DataService.class)
+                .then();
+    }
+
+    @Override
+    public Mono<List<BulkResult>> bulkUpsert(String organizationId, List<DataService> dataServices) {
+        List<WriteModel<Document>> writes = dataServices.stream()
+                .map(dataService -> toWriteModel(organizationId, dataService))
+                .collect(Collectors.toList());
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(DataService.class))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))))
+                .map(result -> toBulkResults(dataServices, result, List.of()))
+                .onErrorResume(MongoBulkWriteException.class,
+                        error -> Mono.just(toBulkResults(dataServices, error.getWriteResult(), error.getWriteErrors())));
+    }
+
+    private WriteModel<Document> toWriteModel(String organizationId, DataService dataService) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(dataService, document);
+        if (dataService.getCreated() != null) {
+            return new InsertOneModel<>(document);
+        }
+
+        Object id = document.remove("_id");
+        document.remove("created");
+        document.remove("documentVersion");
+        // a replacement that keeps created: fields missing from the new version are removed, except the internal ones
+        // clients cannot send, such as the hashes a refresh compares an imported data service with
+        Document unset = new Document();
+        mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(DataService.class)
+                .doWithProperties((MongoPersistentProperty property) -> {
+                    if (!property.isIdProperty() && !property.isVersionProperty() && !"created".equals(property.getFieldName())
+                            && !property.isAnnotationPresent(JsonIgnore.class)
+                            && !document.containsKey(property.getFieldName())) {
+                        unset.append(property.getFieldName(), "");
+                    }
+                });
+        Document update = new Document("$set", document)
+                .append("$setOnInsert", new Document("created", mongoTemplate.getConverter().convertToMongoType(LocalDateTime.now())))
+                .append("$inc", new Document("documentVersion", 1L));
+        if (!unset.isEmpty()) {
+            update.append("$unset", unset);
+        }
+        return new UpdateOneModel<>(new Document("_id", id).append("organizationId", organizationId), update,
+                new UpdateOptions().upsert(true));
+    }
+
+    private List<BulkResult> toBulkResults(List<DataService> dataServices, BulkWriteResult result, List<BulkWriteError> writeErrors) {
+        Set<Integer> upserted = result.getUpserts().stream()
+                .map(BulkWriteUpsert::getIndex)
+                .collect(Collectors.toSet());
+        Map<Integer, String> errors = writeErrors.stream()
+                .collect(Collectors.toMap(BulkWriteError::getIndex, DataServiceMongoRepositoryCustomImpl::toBulkErrorMessage));
+
+        List<BulkResult> results = new ArrayList<>(dataServices.size());
+        for (int index = 0; index < dataServices.size(); index++) {
+            DataService dataService = dataServices.get(index);
+            if (errors.containsKey(index)) {
+                results.add(BulkResult.failed(dataService.getId(), errors.get(index)));
+            } else if (dataService.getCreated() != null || upserted.contains(index)) {
+                results.add(BulkResult.created(dataService.getId()));
+            } else {
+                results.add(BulkResult.updated(dataService.getId()));
+            }
+        }
+        return results;
+    }
+
+    // Mongo's own messages name the collection and index, and the key of what is stored, possibly in another catalog
+    private static String toBulkErrorMessage(BulkWriteError error) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+            return "a data service with this id already exists";
+        }
+        log.warn("error bulk writing dataservice: {}", error.getMessage());
+        return "could not write the data service";
+    }
+}
@@ -0,0 +1,10 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Mono;
+
+public interface DataServiceTombstoneMongoRepository extends ReactiveMongoRepository<DataServiceTombstone, String>, DataServiceTombstoneMongoRepositoryCustom {
+    Mono<DataServiceTombstone> findFirstByOrderByDeletedDesc();
+    Mono<DataServiceTombstone> findFirstByOrganizationIdOrderByDeletedDesc(String organizationId);
+}
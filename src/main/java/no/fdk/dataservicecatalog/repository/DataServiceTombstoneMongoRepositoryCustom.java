@@ -0,0 +1,14 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.ChangeCursor;
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDateTime;
+
+public interface DataServiceTombstoneMongoRepositoryCustom {
+    /**
+     * Tombstones ordered by (deleted, _id), starting after {@code after} and ending at {@code until}.
+     */
+    Flux<DataServiceTombstone> findChanges(ChangeCursor after, LocalDateTime until, int limit);
+}
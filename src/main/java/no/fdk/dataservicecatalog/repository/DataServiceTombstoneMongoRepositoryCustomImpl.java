@@ -0,0 +1,26 @@
+package no.fdk.dataservicecatalog.repository;
+
+import lombok.RequiredArgsConstructor;
+import no.fdk.dataservicecatalog.model.ChangeCursor;
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDateTime;
+
+import static no.fdk.dataservicecatalog.repository.IdCriteria.changedAfter;
+
+@RequiredArgsConstructor
+public class DataServiceTombstoneMongoRepositoryCustomImpl implements DataServiceTombstoneMongoRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Flux<DataServiceTombstone> findChanges(ChangeCursor after, LocalDateTime until, int limit) {
+        Query query = Query.query(changedAfter("deleted", after, until))
+                .with(Sort.by(Sort.Direction.ASC, "deleted", "_id"))
+                .limit(limit);
+        return mongoTemplate.find(query, DataServiceTombstone.class);
+    }
+}
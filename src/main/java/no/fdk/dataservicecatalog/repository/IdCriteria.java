@@ -0,0 +1,46 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.ChangeCursor;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+
+import java.time.LocalDateTime;
+
+// Ids are ObjectIds unless a client chose its own, and Mongo sorts all strings before all ObjectIds
+final class IdCriteria {
+
+    private IdCriteria() {
+    }
+
+    static Criteria idAfter(String id) {
+        if (ObjectId.isValid(id)) {
+            return Criteria.where("_id").gt(new ObjectId(id));
+        }
+        return new Criteria().orOperator(
+                Criteria.where("_id").gt(id),
+                Criteria.where("_id").type(JsonSchemaObject.Type.OBJECT_ID));
+    }
+
+    static Criteria idBefore(String id) {
+        if (ObjectId.isValid(id)) {
+            return new Criteria().orOperator(
+                    Criteria.where("_id").lt(new ObjectId(id)),
+                    Criteria.where("_id").type(JsonSchemaObject.Type.STRING));
+        }
+        return Criteria.where("_id").lt(id);
+    }
+
+    /**
+     * After the cursor in the ordering (field, _id), and not after {@code until}. A cursor without id comes before the
+     * changes made at its time, so they are included.
+     */
+    static Criteria changedAfter(String field, ChangeCursor after, LocalDateTime until) {
+        Criteria changed = after.getId() == null
+                ? Criteria.where(field).gte(after.getChanged())
+                : new Criteria().orOperator(
+                        Criteria.where(field).gt(after.getChanged()),
+                        Criteria.where(field).is(after.getChanged()).andOperator(idAfter(after.getId())));
+        return new Criteria().andOperator(changed, Criteria.where(field).lte(until));
+    }
+}
@@ -0,0 +1,9 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.ImportJob;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Mono;
+
+public interface ImportJobMongoRepository extends ReactiveMongoRepository<ImportJob, String>, ImportJobMongoRepositoryCustom {
+    Mono<ImportJob> findByIdAndOrganizationId(String id, String organizationId);
+}
@@ -0,0 +1,20 @@
+package no.fdk.dataservicecatalog.repository;
+
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+public interface ImportJobMongoRepositoryCustom {
+    /**
+     * Marks the queued and running jobs of {@code owner} created before {@code createdBefore} as failed with
+     * {@code error}, in one update. Returns the number of jobs marked.
+     */
+    Mono<Long> failUnfinished(String owner, LocalDateTime createdBefore, String error);
+
+    /**
+     * Marks the queued and running jobs of every owner but {@code liveOwners} created before {@code createdBefore} as
+     * failed with {@code error}, in one update. Returns the number of jobs marked.
+     */
+    Mono<Long> failAbandoned(Collection<String> liveOwners, LocalDateTime createdBefore, String error);
+}
@@ -0,0 +1,42 @@
+package no.fdk.dataservicecatalog.repository;
+
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import no.fdk.dataservicecatalog.model.ImportJob;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@RequiredArgsConstructor
+public class ImportJobMongoRepositoryCustomImpl implements ImportJobMongoRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Mono<Long> failUnfinished(String owner, LocalDateTime createdBefore, String error) {
+        return fail(Criteria.where("owner").is(owner)
+                .and("state").in(ImportJob.State.QUEUED, ImportJob.State.RUNNING)
+                .and("created").lt(createdBefore), error);
+    }
+
+    @Override
+    public Mono<Long> failAbandoned(Collection<String> liveOwners, LocalDateTime createdBefore, String error) {
+        return fail(Criteria.where("state").in(ImportJob.State.QUEUED, ImportJob.State.RUNNING)
+                .and("created").lt(createdBefore)
+                .and("owner").nin(liveOwners), error);
+    }
+
+    private Mono<Long> fail(Criteria unfinished, String error) {
+        return mongoTemplate.updateMulti(Query.query(unfinished),
+                        new Update().set("state", ImportJob.State.FAILED)
+                                .set("error", error)
+                                .set("finished", LocalDateTime.now())
+                                .unset("expires"),
+                        ImportJob.class)
+                .map(UpdateResult::getModifiedCount);
+    }
+}
@@ -0,0 +1,11 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.Lease;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDateTime;
+
+public interface LeaseMongoRepository extends ReactiveMongoRepository<Lease, String>, LeaseMongoRepositoryCustom {
+    Flux<Lease> findByNameStartingWithAndExpiresAfter(String prefix, LocalDateTime time);
+}
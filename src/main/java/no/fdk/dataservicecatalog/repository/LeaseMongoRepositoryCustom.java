@@ -0,0 +1,19 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.Lease;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+public interface LeaseMongoRepositoryCustom {
+    /**
+     * Takes the lease for {@code duration} if it is free, expired or already held by {@code owner}, in one atomic
+     * upsert. Returns the lease if it was taken, or empty when another owner holds it.
+     */
+    Mono<Lease> acquire(String name, String owner, Duration duration);
+
+    /**
+     * Gives up the lease if {@code owner} holds it. Returns whether it did.
+     */
+    Mono<Boolean> release(String name, String owner);
+}
@@ -0,0 +1,40 @@
+package no.fdk.dataservicecatalog.repository;
+
+import lombok.RequiredArgsConstructor;
+import no.fdk.dataservicecatalog.model.Lease;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+@RequiredArgsConstructor
+public class LeaseMongoRepositoryCustomImpl implements LeaseMongoRepositoryCustom {
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Mono<Lease> acquire(String name, String owner, Duration duration) {
+        LocalDateTime now = LocalDateTime.now();
+        Criteria takeable = new Criteria().orOperator(
+                Criteria.where("owner").is(owner),
+                Criteria.where("expires").lt(now));
+        // a lease held by another owner does not match, and the upsert then collides with it on _id
+        return mongoTemplate.findAndModify(
+                        Query.query(Criteria.where("_id").is(name).andOperator(takeable)),
+                        new Update().set("owner", owner).set("expires", now.plus(duration)),
+                        FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        Lease.class)
+                .onErrorResume(DuplicateKeyException.class, error -> Mono.empty());
+    }
+
+    @Override
+    public Mono<Boolean> release(String name, String owner) {
+        return mongoTemplate.remove(Query.query(Criteria.where("_id").is(name).and("owner").is(owner)), Lease.class)
+                .map(result -> result.getDeletedCount() > 0);
+    }
+}
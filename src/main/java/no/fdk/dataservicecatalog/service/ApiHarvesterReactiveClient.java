@@ -1,39 +1,272 @@
 package no.fdk.dataservicecatalog.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecificationSource;
 import no.fdk.dataservicecatalog.exceptions.ParseException;
 import no.fdk.dataservicecatalog.service.parser.UniversalParser;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.server.ResponseStatusException;
-import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Service
 public class ApiHarvesterReactiveClient {
 
     private final WebClient webClient;
+    private final Scheduler parseScheduler;
+    private final Duration parseTimeout;
+    private final MeterRegistry meterRegistry;
+    private final SpecificationCache specificationCache;
+    private final ParsedSpecificationCache parsedSpecificationCache;
+    private final long maxSize;
+    private final long maxTotalSize;
+    // bytes of specifications downloaded and not yet parsed, across all imports
+    private final AtomicLong bytesInFlight;
 
-    public ApiHarvesterReactiveClient() {
-        webClient = WebClient.builder()
+    public ApiHarvesterReactiveClient(@Qualifier("parseScheduler") Scheduler parseScheduler,
+                                      ApplicationProperties applicationProperties, MeterRegistry meterRegistry,
+                                      SpecificationCache specificationCache, ParsedSpecificationCache parsedSpecificationCache) {
+        this.webClient = WebClient.builder()
                 .defaultHeader("accept", MediaType.APPLICATION_JSON_VALUE).build();
+        this.parseScheduler = parseScheduler;
+        this.parseTimeout = applicationProperties.getParseScheduler().getTimeout();
+        this.meterRegistry = meterRegistry;
+        this.specificationCache = specificationCache;
+        this.parsedSpecificationCache = parsedSpecificationCache;
+
+        var download = applicationProperties.getSpecificationDownload();
+        this.maxSize = download.getMaxSize().toBytes();
+        this.maxTotalSize = download.getMaxTotalSize().toBytes();
+        this.bytesInFlight = meterRegistry.gauge("apispec.download.bytes", new AtomicLong());
     }
 
     Mono<ApiSpecification> convertApiSpecification(ApiSpecificationSource source) {
-        var url = source.getApiSpecUrl();
-        return webClient.get().uri(url).retrieve()
-                .bodyToMono(String.class).map(spec -> {
+        return fetch(source.getApiSpecUrl(), true);
+    }
+
+    /**
+     * Revalidates a cached specification with a conditional request, answering 304 with the cached parse. A cached
+     * entry that has gone missing in the meantime is fetched again unconditionally.
+     */
+    private Mono<ApiSpecification> fetch(String url, boolean conditional) {
+        var cached = conditional ? specificationCache.validators(url) : Optional.<SpecificationCache.Validators>empty();
+        return webClient.get().uri(url)
+                .headers(headers -> cached.ifPresent(validators -> validators.applyTo(headers)))
+                .retrieve()
+                .toEntityFlux(DataBuffer.class)
+                .flatMap(response -> {
+                    if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && cached.isPresent()) {
+                        return response.getBody()
+                                .doOnNext(DataBufferUtils::release)
+                                .then(specificationCache.get(url))
+                                .doOnNext(specification -> recordCache("not_modified"))
+                                .switchIfEmpty(Mono.defer(() -> fetch(url, false)));
+                    }
+                    recordCache(cached.isPresent() ? "modified" : "uncached");
+                    var validators = SpecificationCache.Validators.from(response.getHeaders());
+                    return read(response.getBody(), response.getHeaders().getContentType())
+                            .flatMap(specification -> specificationCache.put(url, validators, specification).thenReturn(specification));
+                });
+    }
+
+    /**
+     * Collects the body without decoding it, failing with 400 as soon as it grows past the maximum size and with 503
+     * when all downloads together hold more than the maximum total size. The charset of the content type is used if
+     * there is one, otherwise it is detected from the bytes. The body counts towards the total until its buffer is
+     * released, which may be after the parse has timed out.
+     */
+    Mono<ApiSpecification> read(Flux<DataBuffer> body, MediaType contentType) {
+        Charset charset = contentType != null ? contentType.getCharset() : null;
+        AtomicLong received = new AtomicLong();
+        return DataBufferUtils.join(body.handle((DataBuffer buffer, SynchronousSink<DataBuffer> sink) -> {
+                    int size = buffer.readableByteCount();
+                    long total = bytesInFlight.addAndGet(size);
+                    if (received.addAndGet(size) > maxSize) {
+                        DataBufferUtils.release(buffer);
+                        sink.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                "Specification is larger than " + maxSize + " bytes"));
+                    } else if (total > maxTotalSize) {
+                        DataBufferUtils.release(buffer);
+                        sink.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                "Too many specifications being downloaded, try again later"));
+                    } else {
+                        sink.next(buffer);
+                    }
+                }))
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Specification is empty")))
+                // from here the buffer gives the bytes back when it is released
+                .flatMap(spec -> parse(new SpecBuffer(spec, received.getAndSet(0), bytesInFlight), charset))
+                .doFinally(signal -> bytesInFlight.addAndGet(-received.getAndSet(0)));
+    }
+
+    /**
+     * Parses on the parse scheduler, keeping the CPU bound work off the thread that received the body, and releases the
+     * buffer. The same document imported from another URL is only parsed once: it is hashed on the bounded elastic
+     * scheduler and looked up before it is queued, so a duplicate takes no parse thread. A full queue or a parse running
+     * past the timeout is answered with 503. The timeout counts from when the parse starts, not while it is queued, and
+     * only gives up waiting: swagger-parser does not check for interruption, so the thread stays busy until the parse
+     * ends. Each parse is recorded once, as timed out if it had not ended by then.
+     */
+    private Mono<ApiSpecification> parse(SpecBuffer buffer, Charset charset) {
+        AtomicLong hashed = new AtomicLong();
+        return Mono.fromCallable(() -> {
+                    if (!buffer.startReading()) {
+                        return null;
+                    }
                     try {
-                        return new UniversalParser().parse(spec);
+                        hashed.set(System.nanoTime());
+                        return parsedSpecificationCache.hash(buffer.spec, charset);
+                    } finally {
+                        buffer.stopReading();
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(hash -> {
+                    Optional<ApiSpecification> deduplicated = parsedSpecificationCache.get(hash);
+                    if (deduplicated.isPresent()) {
+                        buffer.dispose();
+                        recordParse("deduplicated", hashed.get());
+                        return Mono.just(deduplicated.get());
+                    }
+                    return parse(buffer, charset, hash);
+                })
+                .doFinally(signal -> buffer.dispose());
+    }
+
+    private Mono<ApiSpecification> parse(SpecBuffer buffer, Charset charset, String hash) {
+        AtomicBoolean recorded = new AtomicBoolean();
+        AtomicLong started = new AtomicLong();
+        Sinks.Empty<Void> start = Sinks.empty();
+        return Mono.fromCallable(() -> {
+                    if (!buffer.startReading()) {
+                        return null;
+                    }
+                    started.set(System.nanoTime());
+                    start.tryEmitEmpty();
+                    try {
+                        ApiSpecification parsed;
+                        try (InputStream input = buffer.spec.asInputStream()) {
+                            parsed = new UniversalParser().parse(input, charset);
+                        }
+                        recordParse(recorded, "success", started.get());
+                        parsedSpecificationCache.put(hash, parsed);
+                        return parsed;
                     } catch (ParseException e) {
+                        recordParse(recorded, "invalid", started.get());
                         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+                    } finally {
+                        buffer.doneReading();
                     }
+                })
+                .subscribeOn(parseScheduler)
+                .timeout(start.asMono().then(Mono.delay(parseTimeout)))
+                .onErrorMap(RejectedExecutionException.class, e -> {
+                    log.warn("Rejected specification parse", e);
+                    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many specifications being parsed, try again later");
+                })
+                .onErrorMap(TimeoutException.class, e -> {
+                    recordParse(recorded, "timeout", started.get());
+                    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "Parsing the specification took longer than " + parseTimeout.toSeconds() + " seconds, try again later");
                 });
     }
 
+    private void recordCache(String outcome) {
+        meterRegistry.counter("apispec.cache", "outcome", outcome).increment();
+    }
+
+    // a parse can still end after it was recorded as timed out
+    private void recordParse(AtomicBoolean recorded, String outcome, long started) {
+        if (recorded.compareAndSet(false, true)) {
+            recordParse(outcome, started);
+        }
+    }
+
+    private void recordParse(String outcome, long started) {
+        Timer.builder("apispec.parse")
+                .description("Time spent parsing API specifications")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(Duration.ofNanos(System.nanoTime() - started));
+    }
+
+    /**
+     * A downloaded specification, read by the hashing and then the parse on other threads while the import may be
+     * cancelled. It is released once: by whoever disposes of it, or, if it is being read then, by the reader when done.
+     * Its bytes count as in flight until then.
+     */
+    private static final class SpecBuffer {
+        private final DataBuffer spec;
+        private final long size;
+        private final AtomicLong bytesInFlight;
+        private boolean reading;
+        private boolean disposed;
+
+        private SpecBuffer(DataBuffer spec, long size, AtomicLong bytesInFlight) {
+            this.spec = spec;
+            this.size = size;
+            this.bytesInFlight = bytesInFlight;
+        }
+
+        private synchronized boolean startReading() {
+            if (disposed) {
+                return false;
+            }
+            reading = true;
+            return true;
+        }
+
+        private synchronized void stopReading() {
+            reading = false;
+            if (disposed) {
+                release();
+            }
+        }
+
+        // the last read: the buffer is released whether or not it was disposed of meanwhile
+        private synchronized void doneReading() {
+            reading = false;
+            disposed = true;
+            release();
+        }
+
+        private synchronized void dispose() {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            if (!reading) {
+                release();
+            }
+        }
+
+        private void release() {
+            DataBufferUtils.release(spec);
+            bytesInFlight.addAndGet(-size);
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package no.fdk.dataservicecatalog.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import org.apache.jena.riot.Lang;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Serialised RDF responses per scope, catalog and language. The handler keys every response by its ETag as well, so a
+ * change to a data service moves requests to a new key by itself. {@link #invalidate} is called on every change too.
+ * It frees the stale entries before they expire, and a response that was built while an invalidation happened is never
+ * kept. That covers a build that read the data after a change but was keyed by the version from before it.
+ */
+@Slf4j
+@Service
+public class CatalogCache {
+
+    public enum Scope {
+        CATALOGS,
+        CATALOG,
+        DATA_SERVICE
+    }
+
+    @Value
+    public static class Key {
+        Scope scope;
+        String catalogId;
+        String dataServiceId;
+        Lang lang;
+        @With
+        String version;
+
+        public static Key catalogs(Lang lang) {
+            return new Key(Scope.CATALOGS, null, null, lang, null);
+        }
+
+        public static Key catalog(String catalogId, Lang lang) {
+            return new Key(Scope.CATALOG, catalogId, null, lang, null);
+        }
+
+        public static Key dataService(String catalogId, String dataServiceId, Lang lang) {
+            return new Key(Scope.DATA_SERVICE, catalogId, dataServiceId, lang, null);
+        }
+
+        private boolean isAffectedBy(String catalogId, String dataServiceId) {
+            return scope == Scope.CATALOGS
+                    || Objects.equals(this.catalogId, catalogId)
+                    || (this.dataServiceId != null && this.dataServiceId.equals(dataServiceId));
+        }
+    }
+
+    private final Cache<Key, byte[]> cache;
+    // keys of responses larger than an entry, which are neither shared nor cached
+    private final Cache<Key, Boolean> tooLarge;
+    private final int maxEntryBytes;
+    private final AtomicLong generation = new AtomicLong();
+    private final Map<Key, Mono<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    public CatalogCache(ApplicationProperties applicationProperties) {
+        var properties = applicationProperties.getCatalogCache();
+        this.maxEntryBytes = (int) Math.min(Integer.MAX_VALUE, properties.getMaxEntrySize().toBytes());
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxSize().toBytes())
+                .weigher((Key key, byte[] response) -> response.length)
+                .expireAfterWrite(properties.getTimeToLive())
+                .build();
+        this.tooLarge = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(properties.getTimeToLive())
+                .build();
+    }
+
+    /**
+     * Serves the cached response, or joins the build already in flight for the key, or starts one. Concurrent requests
+     * for the same response therefore share a single build, which is collected in memory and cached when it completes.
+     * A response found to be larger than a cache entry is streamed by every request on its own instead, including the
+     * requests that were waiting on the build that found out.
+     */
+    public Flux<DataBuffer> get(Key key, Supplier<Flux<DataBuffer>> loader, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            byte[] cached = cache.getIfPresent(key);
+            if (cached != null) {
+                log.debug("Serving {} from cache", key);
+                return Flux.just(bufferFactory.wrap(cached));
+            }
+            if (tooLarge.getIfPresent(key) != null) {
+                return loader.get();
+            }
+            return inFlight.computeIfAbsent(key, k -> load(k, loader))
+                    .map(bufferFactory::wrap)
+                    .flux()
+                    .onErrorResume(DataBufferLimitException.class, error -> loader.get());
+        });
+    }
+
+    public void invalidate(String catalogId, String dataServiceId) {
+        generation.incrementAndGet();
+        inFlight.keySet().removeIf(key -> key.isAffectedBy(catalogId, dataServiceId));
+        cache.asMap().keySet().removeIf(key -> key.isAffectedBy(catalogId, dataServiceId));
+        tooLarge.asMap().keySet().removeIf(key -> key.isAffectedBy(catalogId, dataServiceId));
+        log.debug("Invalidated cached responses for catalog {} and data service {}", catalogId, dataServiceId);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        inFlight.clear();
+        cache.invalidateAll();
+        tooLarge.invalidateAll();
+    }
+
+    private void put(Key key, byte[] response, long loadedAt) {
+        cache.put(key, response);
+        if (generation.get() != loadedAt) {
+            cache.invalidate(key);
+        }
+    }
+
+    private Mono<byte[]> load(Key key, Supplier<Flux<DataBuffer>> loader) {
+        long loadedAt = generation.get();
+        AtomicReference<Mono<byte[]>> self = new AtomicReference<>();
+        Mono<byte[]> build = DataBufferUtils.join(Flux.defer(loader), maxEntryBytes)
+                .map(CatalogCache::toBytes)
+                .doOnNext(response -> put(key, response, loadedAt))
+                .doOnError(DataBufferLimitException.class, error -> {
+                    log.debug("{} is too large to cache, streaming it per request", key);
+                    tooLarge.put(key, Boolean.TRUE);
+                })
+                .doFinally(signal -> inFlight.remove(key, self.get()))
+                .cache();
+        self.set(build);
+        return build;
+    }
+
+    private static byte[] toBytes(DataBuffer buffer) {
+        byte[] response = new byte[buffer.readableByteCount()];
+        buffer.read(response);
+        DataBufferUtils.release(buffer);
+        return response;
+    }
+}
@@ -1,10 +1,15 @@
 package no.fdk.dataservicecatalog.service;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import no.fdk.dataservicecatalog.config.ApplicationProperties;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
@@ -12,21 +17,48 @@ import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecificationSou
 import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Info;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.servers.Server;
 import no.fdk.dataservicecatalog.exceptions.NotFoundException;
+import no.fdk.dataservicecatalog.model.BulkResult;
+import no.fdk.dataservicecatalog.model.CatalogRegistration;
+import no.fdk.dataservicecatalog.model.CreatedCursor;
 import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
 import no.fdk.dataservicecatalog.model.Status;
+import no.fdk.dataservicecatalog.repository.CatalogRegistrationMongoRepository;
 import no.fdk.dataservicecatalog.repository.DataServiceMongoRepository;
+import no.fdk.dataservicecatalog.repository.DataServiceTombstoneMongoRepository;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.bson.types.ObjectId;
 import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.rabbitmq.OutboundMessage;
 import reactor.rabbitmq.Sender;
+import reactor.util.function.Tuple2;
+import reactor.util.retry.Retry;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -35,19 +67,59 @@ import java.util.stream.Collectors;
 @Service
 public class DataServiceService {
 
+    private static final int REFRESH_RETRIES = 3;
+    private static final Duration REFRESH_BACKOFF = Duration.ofSeconds(5);
+    private static final int UPDATE_RETRIES = 3;
+
+    // fields a merge patch may not touch, either because the server owns them or because they are not part of the API
+    private static final Set<String> UNPATCHABLE_FIELDS = Set.of("id", "organizationId", "created", "modified",
+            "rdfFragment", "rdfFragmentFingerprint", "importedFields", "documentVersion");
+
+    // fields the listing can be projected to, i.e. every field clients see
+    private static final Set<String> LISTABLE_FIELDS = Arrays.stream(DataService.class.getDeclaredFields())
+            .filter(field -> !Modifier.isStatic(field.getModifiers()) && !field.isAnnotationPresent(JsonIgnore.class))
+            .map(Field::getName)
+            .collect(Collectors.toUnmodifiableSet());
+
+    // what an import maps from a specification, by update path; the language maps are refreshed in the default language
+    private static final Map<String, Function<DataService, Object>> IMPORTED_FIELDS = Map.ofEntries(
+            Map.entry("title." + DataService.DEFAULT_LANGUAGE, dataService -> inDefaultLanguage(dataService.getTitle())),
+            Map.entry("description." + DataService.DEFAULT_LANGUAGE, dataService -> inDefaultLanguage(dataService.getDescription())),
+            Map.entry("version", DataService::getVersion),
+            Map.entry("operationCount", DataService::getOperationCount),
+            Map.entry("contact", DataService::getContact),
+            Map.entry("license", DataService::getLicense),
+            Map.entry("endpointUrls", DataService::getEndpointUrls),
+            Map.entry("mediaTypes", DataService::getMediaTypes),
+            Map.entry("externalDocs", DataService::getExternalDocs),
+            Map.entry("termsOfServiceUrl", DataService::getTermsOfServiceUrl));
+
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ObjectWriter objectWriter = objectMapper.writer();
+    private final ObjectReader bulkReader = objectMapper.copy()
+            .findAndRegisterModules()
+            .readerFor(DataService.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
     private final Sender sender;
     private final ApiHarvesterReactiveClient apiHarvesterReactiveClient;
     private final DataServiceMongoRepository dataServiceMongoRepository;
+    private final DataServiceTombstoneMongoRepository dataServiceTombstoneMongoRepository;
+    private final CatalogRegistrationMongoRepository catalogRegistrationMongoRepository;
     private final ApplicationProperties applicationProperties;
     private final RabbitProperties rabbitProperties;
+    private final CatalogCache catalogCache;
+    private final DcatApNoModelService dcatApNoModelService;
+    private final QueryMetrics queryMetrics;
 
     private static Map<String, String> setDefaultLanguageValue(String value) {
         return Collections.singletonMap(DataService.DEFAULT_LANGUAGE, value);
     }
 
+    private static String inDefaultLanguage(Map<String, String> value) {
+        return value != null ? value.get(DataService.DEFAULT_LANGUAGE) : null;
+    }
+
     private DataService parseApiSpecification(ApiSpecification apiSpecification, ApiSpecificationSource source, String organizationId, String dataServiceId) {
         var apiInfo = apiSpecification.getInfo();
         if (apiInfo == null) {
@@ -64,7 +136,7 @@ public class DataServiceService {
             servers = Collections.emptyList();
         }
 
-        return DataService.builder()
+        DataService dataService = DataService.builder()
                 .id(dataServiceId)
                 .organizationId(organizationId)
                 .license(apiInfo.getLicense())
@@ -81,7 +153,26 @@ public class DataServiceService {
                 .status(Status.DRAFT)
                 .imported(true)
                 .build();
+        dataService.setImportedFields(importedFields(dataService));
+        return dataService;
+    }
+
+    Map<String, String> importedFields(DataService imported) {
+        Map<String, String> hashes = new HashMap<>();
+        IMPORTED_FIELDS.forEach((path, field) -> {
+            try {
+                hashes.put(importedFieldKey(path), DigestUtils.sha256Hex(objectWriter.writeValueAsBytes(field.apply(imported))));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(path + " of " + imported.getId() + " could not be serialised", e);
+            }
+        });
+        return hashes;
+    }
 
+    // mongo keys can't hold dots, and each imported path is the only one below its field
+    private static String importedFieldKey(String path) {
+        int dot = path.indexOf('.');
+        return dot < 0 ? path : path.substring(0, dot);
     }
 
     public Mono<DataService> importFromSpecification(ApiSpecificationSource source, String catalogId) {
@@ -89,7 +180,9 @@ public class DataServiceService {
         Mono<DataService> dataServiceMono = apiSpecification.map(apiSpecification1 -> parseApiSpecification(apiSpecification1, source, catalogId, null))
                 .doOnSuccess(dataService -> log.debug("dataservice loaded from specification"))
                 .doOnError(error -> log.error("new dataservice failed mapping", error));
-        return dataServiceMono.flatMap(dataServiceMongoRepository::save);
+        return dataServiceMono.map(this::withRdfFragment)
+                .flatMap(dataServiceMongoRepository::save)
+                .doOnNext(saved -> catalogCache.invalidate(catalogId, saved.getId()));
     }
 
     public Mono<DataService> importFromSpecification(String dataServiceId, String catalogId, ApiSpecificationSource source) {
@@ -97,14 +190,48 @@ public class DataServiceService {
         Mono<DataService> dataServiceMono = apiSpecification.map(apiSpecification1 -> parseApiSpecification(apiSpecification1, source, catalogId, dataServiceId))
                 .doOnSuccess(dataService -> log.debug("dataservice {} loaded from specification", dataService.getId()))
                 .doOnError(error -> log.error("dataservice with id {} failed mapping", dataServiceId, error));
-        return dataServiceMono.flatMap(dataServiceMongoRepository::save);
+        // the import replaces the stored data service, so it has to carry its version
+        Mono<Optional<DataService>> existing = dataServiceMongoRepository.findByIdAndOrganizationId(dataServiceId, catalogId)
+                .flatMap(this::withDocumentVersion)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+        return dataServiceMono.zipWith(existing)
+                .flatMap(imported -> {
+                    DataService dataService = imported.getT1();
+                    Status previous = imported.getT2().map(DataService::getStatus).orElse(null);
+                    dataService.setDocumentVersion(imported.getT2().map(DataService::getDocumentVersion).orElse(null));
+                    return dataServiceMongoRepository.save(withRdfFragment(dataService))
+                            .flatMap(saved -> recordStatusChange(dataServiceId, catalogId, previous, saved.getStatus()).thenReturn(saved));
+                })
+                .doOnNext(saved -> catalogCache.invalidate(catalogId, dataServiceId));
+    }
+
+    private DataService withRdfFragment(DataService dataService) {
+        // the fragment refers to the data service by id, so new data services get their id up front
+        if (dataService.getId() == null) {
+            dataService.setId(new ObjectId().toHexString());
+        }
+        return dcatApNoModelService.renderFragment(dataService);
     }
 
     public Flux<DataService> getAllDataServices(String catalogId) {
-        var all = dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(catalogId)
+        return dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(catalogId)
+                .transform(queryMetrics.instrument("all-by-catalog"))
                 .doOnError(error -> log.error("error retrieving all dataservices from mongo", error));
-        all.count().subscribe(count -> log.debug("found {} dataservices", count));
-        return all;
+    }
+
+    /**
+     * Data services of a catalog, newest first, starting after {@code after}. A limit of 0 means no limit, and an empty
+     * set of fields means all fields.
+     */
+    public Flux<DataService> getDataServices(String catalogId, CreatedCursor after, int limit, Set<String> fields) {
+        if (!LISTABLE_FIELDS.containsAll(fields)) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("fields must be among %s", LISTABLE_FIELDS.stream().sorted().collect(Collectors.joining(",")))));
+        }
+        return dataServiceMongoRepository.findPage(catalogId, after, limit, fields)
+                .transform(queryMetrics.instrument("page-by-catalog"))
+                .doOnError(error -> log.error("error retrieving page of dataservices from mongo", error));
     }
 
     private OutboundMessage getOutboundMessage(ObjectNode payload) {
@@ -142,28 +269,51 @@ public class DataServiceService {
         }
     }
 
-    private void createNewDataSource(final DataService dataService, final String harvestUrl) {
-        try {
-            log.debug("Create new data source for dataservice {}", dataService.getId());
-            sender.sendWithPublishConfirms(Flux
-                    .just(objectMapper.createObjectNode())
-                    .map(payload -> {
-                        payload.put("publisherId", dataService.getOrganizationId());
-                        payload.put("url", harvestUrl);
-                        payload.put("dataType", "dataservice");
-                        payload.put("dataSourceType", "DCAT-AP-NO");
-                        payload.put("acceptHeaderValue", "text/turtle");
-                        payload.put("description",
-                                String.format("Automatically generated data source for %s",
-                                        dataService.getOrganizationId()));
+    private Mono<Void> createNewDataSource(final DataService dataService, final String harvestUrl) {
+        log.debug("Create new data source for dataservice {}", dataService.getId());
+        return sender.sendWithPublishConfirms(Flux
+                .just(objectMapper.createObjectNode())
+                .map(payload -> {
+                    payload.put("publisherId", dataService.getOrganizationId());
+                    payload.put("url", harvestUrl);
+                    payload.put("dataType", "dataservice");
+                    payload.put("dataSourceType", "DCAT-AP-NO");
+                    payload.put("acceptHeaderValue", "text/turtle");
+                    payload.put("description",
+                            String.format("Automatically generated data source for %s",
+                                    dataService.getOrganizationId()));
 
-                        return getOutboundMessage(payload, "dataservice.publisher.NewDataSource");
-                    }))
-                    .onErrorResume(Mono::error)
-                    .subscribe(result -> log.debug(result.toString()));
-        } catch(RuntimeException e) {
-            log.error("Unable to create new datasource", e);
-        }
+                    return getOutboundMessage(payload, "dataservice.publisher.NewDataSource");
+                }))
+                .doOnNext(result -> log.debug(result.toString()))
+                .filter(result -> !result.isAck())
+                .flatMap(result -> Mono.<Void>error(new IllegalStateException("new data source was not confirmed")))
+                .then();
+    }
+
+    /**
+     * Called when a data service moves to PUBLISHED. The publication claims the catalog's data source in the registry,
+     * and the registration it replaced tells whether it is the first. The claim is released again if the data source
+     * could not be sent, so it is created once and the flag only tells it was.
+     */
+    private void createNewDataSourceOnFirstPublication(final DataService dataService, final String catalogId) {
+        catalogRegistrationMongoRepository.registerPublication(catalogId)
+                .map(CatalogRegistration::isDataSourceCreated)
+                .defaultIfEmpty(false)
+                .doOnNext(created -> log.debug("first publication in katalog {}: {}", catalogId, !created))
+                .filter(created -> !created)
+                .flatMap(first -> createNewDataSource(dataService, String.format("%s/catalogs/%s",
+                                applicationProperties.getCatalogBaseUri(),
+                                catalogId))
+                        .onErrorResume(error -> catalogRegistrationMongoRepository.setDataSourceCreated(catalogId, false)
+                                .then(Mono.error(error))))
+                .subscribe(
+                        null,
+                        error -> log.error("error registering publication in katalog {}", catalogId, error));
+    }
+
+    private static boolean isPublication(Status previous, Status current) {
+        return previous != Status.PUBLISHED && current == Status.PUBLISHED;
     }
 
     public Mono<DataService> create(DataService dataService, String catalogId) {
@@ -173,26 +323,307 @@ public class DataServiceService {
             dataService.setStatus(Status.DRAFT);
         }
 
-        return dataServiceMongoRepository.save(dataService)
+        return dataServiceMongoRepository.save(withRdfFragment(dataService))
                 .doOnSuccess(saved -> {
                     log.debug("dataservice {} saved", saved.getId());
+                    catalogCache.invalidate(catalogId, saved.getId());
                     if (saved.getStatus() == Status.PUBLISHED) {
                         triggerHarvest(saved);
-
-                        dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(catalogId)
-                            .count()
-                            .doOnNext(count -> log.debug("total count of dataservices for katalog {}: {}",
-                                    catalogId, count))
-                            .filter(count -> count == 1)
-                            .doOnNext(count -> createNewDataSource(saved, String.format("%s/%s",
-                                    applicationProperties.getCatalogBaseUri(),
-                                    catalogId)))
-                            .subscribe();
+                        createNewDataSourceOnFirstPublication(saved, catalogId);
                     }
                 })
                 .doOnError(error -> log.error("error saving dataservice to database", error));
     }
 
+    /**
+     * Creates the data services without id and replaces the ones with id, one NDJSON line each, in unordered batches.
+     * The catalog is harvested once when the stream ends rather than once per data service.
+     */
+    public Flux<BulkResult> bulkUpsert(Flux<String> lines, String catalogId) {
+        AtomicBoolean harvest = new AtomicBoolean();
+        AtomicBoolean published = new AtomicBoolean();
+        return lines.index()
+                .filter(line -> !line.getT2().isBlank())
+                .buffer(applicationProperties.getBulkImport().getBatchSize())
+                .concatMap(batch -> writeBulkBatch(batch, catalogId, harvest, published))
+                .doFinally(signal -> {
+                    if (harvest.get()) {
+                        catalogCache.invalidate(catalogId, null);
+                        DataService catalog = DataService.builder().organizationId(catalogId).build();
+                        triggerHarvest(catalog);
+                        if (published.get()) {
+                            createNewDataSourceOnFirstPublication(catalog, catalogId);
+                        }
+                    }
+                });
+    }
+
+    private Flux<BulkResult> writeBulkBatch(List<Tuple2<Long, String>> batch, String catalogId, AtomicBoolean harvest, AtomicBoolean published) {
+        List<BulkResult> unreadable = new ArrayList<>();
+        List<Long> lineNumbers = new ArrayList<>();
+        List<DataService> dataServices = new ArrayList<>();
+        for (Tuple2<Long, String> line : batch) {
+            long lineNumber = line.getT1() + 1;
+            try {
+                dataServices.add(prepareBulkItem(bulkReader.readValue(line.getT2()), catalogId));
+                lineNumbers.add(lineNumber);
+            } catch (JsonProcessingException e) {
+                unreadable.add(BulkResult.failed(null, e.getOriginalMessage()).withLine(lineNumber));
+            }
+        }
+        if (dataServices.isEmpty()) {
+            return Flux.fromIterable(unreadable);
+        }
+
+        // the status replaced data services had, to tell which ones are unpublished or published again
+        List<String> replacedIds = dataServices.stream()
+                .filter(dataService -> dataService.getCreated() == null)
+                .map(DataService::getId)
+                .collect(Collectors.toList());
+        Mono<Map<String, Status>> previousStatuses = replacedIds.isEmpty()
+                ? Mono.just(Map.of())
+                : dataServiceMongoRepository.findAllByOrganizationIdAndIdIn(catalogId, replacedIds)
+                        .collectMap(DataService::getId, DataService::getStatus);
+
+        Mono<List<BulkResult>> written = previousStatuses.flatMap(previous -> bulkWrite(catalogId, lineNumbers, dataServices)
+                .flatMap(results -> Flux.range(0, results.size())
+                        .filter(index -> results.get(index).getOutcome() == BulkResult.Outcome.UPDATED)
+                        .concatMap(index -> recordStatusChange(dataServices.get(index).getId(), catalogId,
+                                previous.get(dataServices.get(index).getId()), dataServices.get(index).getStatus()))
+                        .then(Mono.just(results)))
+                .doOnNext(results -> {
+                    for (int index = 0; index < results.size(); index++) {
+                        var outcome = results.get(index).getOutcome();
+                        var status = dataServices.get(index).getStatus();
+                        if (outcome != BulkResult.Outcome.FAILED && (status == Status.PUBLISHED || outcome == BulkResult.Outcome.UPDATED)) {
+                            harvest.set(true);
+                            published.compareAndSet(false, isPublication(previous.get(dataServices.get(index).getId()), status));
+                        }
+                    }
+                }));
+        return Flux.fromIterable(unreadable).concatWith(written.flatMapIterable(results -> results));
+    }
+
+    private Mono<List<BulkResult>> bulkWrite(String catalogId, List<Long> lineNumbers, List<DataService> dataServices) {
+        return dataServiceMongoRepository.bulkUpsert(catalogId, dataServices)
+                .onErrorResume(error -> {
+                    log.error("error bulk writing dataservices in katalog {}", catalogId, error);
+                    return Mono.just(dataServices.stream()
+                            .map(dataService -> BulkResult.failed(dataService.getId(), "could not write the data service"))
+                            .collect(Collectors.toList()));
+                })
+                .map(results -> {
+                    List<BulkResult> numbered = new ArrayList<>(results.size());
+                    for (int index = 0; index < results.size(); index++) {
+                        numbered.add(results.get(index).withLine(lineNumbers.get(index)));
+                    }
+                    return numbered;
+                });
+    }
+
+    /**
+     * Imports a list of specifications into new data services. Downloads run concurrently with a limit per host and a
+     * limit overall, and the mapped data services are inserted in batches. Results are numbered by position in
+     * {@code sources}, from 1.
+     */
+    public Flux<BulkResult> bulkImport(List<ApiSpecificationSource> sources, String catalogId) {
+        var properties = applicationProperties.getBulkImport();
+        int perHostConcurrency = Math.min(properties.getPerHostConcurrency(), properties.getConcurrency());
+        AtomicBoolean written = new AtomicBoolean();
+        return Flux.range(0, sources.size())
+                // every source fits in the groups' buffers, so hosts waiting for their turn do not stall groupBy
+                .groupBy(index -> host(sources.get(index).getApiSpecUrl()), Math.max(sources.size(), 1))
+                .flatMap(host -> host.flatMap(index -> importSource(index + 1, sources.get(index), catalogId),
+                        perHostConcurrency), Math.max(properties.getConcurrency() / perHostConcurrency, 1))
+                .bufferTimeout(properties.getBatchSize(), properties.getBatchTimeout())
+                .concatMap(batch -> {
+                    List<BulkResult> failed = new ArrayList<>();
+                    List<Long> lineNumbers = new ArrayList<>();
+                    List<DataService> dataServices = new ArrayList<>();
+                    batch.forEach(imported -> {
+                        if (imported.getDataService() != null) {
+                            lineNumbers.add(imported.getLine());
+                            dataServices.add(imported.getDataService());
+                        } else {
+                            failed.add(BulkResult.failed(null, imported.getError()).withLine(imported.getLine()));
+                        }
+                    });
+                    if (dataServices.isEmpty()) {
+                        return Flux.fromIterable(failed);
+                    }
+                    return Flux.fromIterable(failed).concatWith(bulkWrite(catalogId, lineNumbers, dataServices)
+                            .doOnNext(results -> written.set(true))
+                            .flatMapIterable(results -> results));
+                })
+                .doFinally(signal -> {
+                    if (written.get()) {
+                        catalogCache.invalidate(catalogId, null);
+                    }
+                });
+    }
+
+    // the data service mapped from a specification, or why it could not be imported
+    @Value
+    private static class ImportedSource {
+        long line;
+        DataService dataService;
+        String error;
+    }
+
+    private Mono<ImportedSource> importSource(long lineNumber, ApiSpecificationSource source, String catalogId) {
+        if (source == null || source.getApiSpecUrl() == null) {
+            return Mono.just(new ImportedSource(lineNumber, null, "apiSpecUrl is missing"));
+        }
+        return apiHarvesterReactiveClient.convertApiSpecification(source)
+                .map(apiSpecification -> {
+                    DataService dataService = parseApiSpecification(apiSpecification, source, catalogId, null);
+                    dataService.setCreated(LocalDateTime.now());
+                    dataService.setDocumentVersion(0L);
+                    return new ImportedSource(lineNumber, withRdfFragment(dataService), null);
+                })
+                .onErrorResume(error -> {
+                    log.warn("import of {} failed", source.getApiSpecUrl(), error);
+                    return Mono.just(new ImportedSource(lineNumber, null, error instanceof ResponseStatusException
+                            ? ((ResponseStatusException) error).getReason()
+                            : String.valueOf(error.getMessage())));
+                });
+    }
+
+    private static String host(String url) {
+        try {
+            return String.valueOf(URI.create(url).getHost());
+        } catch (RuntimeException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Brings imported data services up to date with the specifications they were imported from. Each specification is
+     * fetched once however many data services use it, revalidated with a conditional request and with a limit per
+     * host and overall. A data service is only written when its specification maps to something else than when it was
+     * last imported, so fields edited since are kept until the specification changes. Catalogs with refreshed
+     * published data services are harvested once when the refresh ends.
+     */
+    public Flux<DataService> refreshImported() {
+        var properties = applicationProperties.getImportRefresh();
+        int perHostConcurrency = Math.min(properties.getPerHostConcurrency(), properties.getConcurrency());
+        Set<String> harvest = ConcurrentHashMap.newKeySet();
+        return dataServiceMongoRepository.findImportedEndpointDescriptions()
+                .collectList()
+                // every url fits in the groups' buffers, so hosts waiting for their turn do not stall groupBy
+                .flatMapMany(urls -> Flux.fromIterable(urls)
+                        .groupBy(DataServiceService::host, Math.max(urls.size(), 1))
+                        .flatMap(host -> host.flatMap(this::refreshImported, perHostConcurrency),
+                                Math.max(properties.getConcurrency() / perHostConcurrency, 1)))
+                .doOnNext(refreshed -> {
+                    if (refreshed.getStatus() == Status.PUBLISHED) {
+                        harvest.add(refreshed.getOrganizationId());
+                    }
+                })
+                .doFinally(signal -> harvest.forEach(catalogId ->
+                        triggerHarvest(DataService.builder().organizationId(catalogId).build())));
+    }
+
+    private Flux<DataService> refreshImported(String url) {
+        var source = new ApiSpecificationSource();
+        source.setApiSpecUrl(url);
+        // only the data services of one specification are held at a time; urls that are not the first endpoint
+        // description of any data service are not fetched
+        return dataServiceMongoRepository.findAllImportedFrom(url)
+                .collectList()
+                .filter(dataServices -> !dataServices.isEmpty())
+                .flatMapMany(dataServices -> apiHarvesterReactiveClient.convertApiSpecification(source)
+                        // the parse scheduler turns work away when it is busy, which should delay the refresh, not skip it
+                        .retryWhen(Retry.backoff(REFRESH_RETRIES, REFRESH_BACKOFF)
+                                .filter(error -> error instanceof ResponseStatusException
+                                        && ((ResponseStatusException) error).getStatus() == HttpStatus.SERVICE_UNAVAILABLE)
+                                .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                        .doOnError(error -> log.warn("refresh of {} failed", url, error))
+                        .onErrorResume(error -> Mono.empty())
+                        .flatMapMany(apiSpecification -> Flux.fromIterable(dataServices)
+                                .concatMap(dataService -> refreshImported(dataService, apiSpecification, source, true))));
+    }
+
+    private Mono<DataService> refreshImported(DataService existing, ApiSpecification apiSpecification, ApiSpecificationSource source, boolean retry) {
+        DataService imported = parseApiSpecification(apiSpecification, source, existing.getOrganizationId(), existing.getId());
+        Map<String, String> importedFields = imported.getImportedFields();
+        Map<String, String> lastImported = existing.getImportedFields();
+        if (importedFields.equals(lastImported)) {
+            return Mono.empty();
+        }
+        Update update = new Update();
+        boolean changed = false;
+        if (lastImported == null) {
+            // imported before the imported fields were kept, so the stored fields may have been edited: the
+            // specification as it is now only becomes the one later refreshes compare with
+            update.set("importedFields", importedFields);
+        } else {
+            for (Map.Entry<String, Function<DataService, Object>> entry : IMPORTED_FIELDS.entrySet()) {
+                String key = importedFieldKey(entry.getKey());
+                if (importedFields.get(key).equals(lastImported.get(key))) {
+                    // unchanged upstream, so whatever is stored is kept, edited or not
+                    continue;
+                }
+                update.set("importedFields." + key, importedFields.get(key));
+                if (!lastImported.containsKey(key)) {
+                    // not imported when the data service was, so like above only recorded
+                    continue;
+                }
+                Object value = entry.getValue().apply(imported);
+                if (!Objects.equals(entry.getValue().apply(existing), value)) {
+                    changed = true;
+                    if (value != null) {
+                        update.set(entry.getKey(), value);
+                    } else {
+                        update.unset(entry.getKey());
+                    }
+                }
+            }
+        }
+        if (!changed) {
+            return dataServiceMongoRepository.updateFields(existing.getId(), existing.getOrganizationId(), existing.getDocumentVersion(), update)
+                    .doOnError(error -> log.error("error recording the specification of dataservice {}", existing.getId(), error))
+                    .onErrorResume(error -> Mono.empty())
+                    .then(Mono.empty());
+        }
+        update.set("modified", LocalDateTime.now())
+                .inc("documentVersion", 1)
+                .unset("rdfFragment")
+                .unset("rdfFragmentFingerprint");
+
+        return dataServiceMongoRepository.updateFields(existing.getId(), existing.getOrganizationId(), existing.getDocumentVersion(), update)
+                .flatMap(this::refreshRdfFragment)
+                .doOnNext(refreshed -> {
+                    log.debug("dataservice {} refreshed from {} to version {}", refreshed.getId(), source.getApiSpecUrl(), refreshed.getDocumentVersion());
+                    catalogCache.invalidate(refreshed.getOrganizationId(), refreshed.getId());
+                })
+                // edited since it was read, so compare with the stored data service once more
+                .switchIfEmpty(Mono.defer(() -> retry
+                        ? dataServiceMongoRepository.findByIdAndOrganizationId(existing.getId(), existing.getOrganizationId())
+                                .filter(DataService::isImported)
+                                .flatMap(current -> refreshImported(current, apiSpecification, source, false))
+                        : Mono.empty()))
+                .doOnError(error -> log.error("error refreshing dataservice {}", existing.getId(), error))
+                .onErrorResume(error -> Mono.empty());
+    }
+
+    private DataService prepareBulkItem(DataService dataService, String catalogId) {
+        // the repository inserts data services that have created and replaces the others
+        if (dataService.getId() == null) {
+            dataService.setCreated(LocalDateTime.now());
+            dataService.setDocumentVersion(0L);
+        } else {
+            dataService.setCreated(null);
+            dataService.setModified(LocalDateTime.now());
+            dataService.setDocumentVersion(null);
+        }
+        if (dataService.getStatus() == null || !List.of(Status.DRAFT, Status.PUBLISHED).contains(dataService.getStatus())) {
+            dataService.setStatus(Status.DRAFT);
+        }
+        dataService.setOrganizationId(catalogId);
+        return withRdfFragment(dataService);
+    }
+
     public Mono<DataService> findById(String dataServiceId, String catalogId) {
         return dataServiceMongoRepository.findByIdAndOrganizationId(dataServiceId, catalogId)
                 .doOnSuccess(dataService -> {
@@ -206,40 +637,237 @@ public class DataServiceService {
     }
 
     public Mono<Boolean> deleteById(String dataServiceId, String catalogId) {
-        return dataServiceMongoRepository.deleteByIdAndOrganizationId(dataServiceId, catalogId)
+        return dataServiceMongoRepository.findAndDelete(dataServiceId, catalogId)
                 .doOnError(error -> log.error("error deleting dataservice {}", dataServiceId, error))
-                .map(deletedCount -> deletedCount > 0)
-                .doOnSuccess(deleted -> log.debug("dataset {} deleted: {}", dataServiceId, deleted));
+                // the changes feed only ever showed published data services, so only their deletion is recorded
+                .flatMap(deleted -> deleted.getStatus() == Status.PUBLISHED
+                        ? saveTombstone(dataServiceId, catalogId).thenReturn(true)
+                        : Mono.just(true))
+                .defaultIfEmpty(false)
+                .doOnSuccess(deleted -> {
+                    log.debug("dataset {} deleted: {}", dataServiceId, deleted);
+                    if (Boolean.TRUE.equals(deleted)) {
+                        catalogCache.invalidate(catalogId, dataServiceId);
+                    }
+                });
     }
 
-    public Mono<DataService> update(String dataServiceId, String catalogId, DataService updated) {
-        return dataServiceMongoRepository.findByIdAndOrganizationId(dataServiceId, catalogId)
+    private Mono<DataServiceTombstone> saveTombstone(String dataServiceId, String catalogId) {
+        DataServiceTombstone tombstone = DataServiceTombstone.builder()
+                .id(dataServiceId)
+                .organizationId(catalogId)
+                .deleted(LocalDateTime.now())
+                .build();
+        // the data service is already gone, so a missing tombstone only hides the deletion from the changes feed
+        return dataServiceTombstoneMongoRepository.save(tombstone)
+                .doOnError(error -> log.error("error saving tombstone for dataservice {}", dataServiceId, error))
+                .onErrorResume(error -> Mono.empty());
+    }
+
+    /**
+     * Replaces the data service. With expected versions, as given in If-Match, it is only replaced at one of them;
+     * without, it is read and saved again a few times if a concurrent write gets in between, then given up with 409.
+     */
+    public Mono<DataService> update(String dataServiceId, String catalogId, DataService updated, Set<Long> expectedVersions) {
+        return Mono.defer(() -> dataServiceMongoRepository.findByIdAndOrganizationId(dataServiceId, catalogId))
+                .flatMap(this::withDocumentVersion)
                 .doOnError(error -> log.error("error retrieving dataservice {}", dataServiceId, error))
                 .flatMap(dataService -> {
                     if (dataService != null) {
                         log.debug("dataservice {} retrieved for patch", dataService.getId());
+                        if (!isExpected(expectedVersions, dataService.getDocumentVersion())) {
+                            return Mono.error(versionMismatch(dataServiceId));
+                        }
                         updated.setId(dataServiceId);
                         updated.setCreated(dataService.getCreated());
                         updated.setModified(LocalDateTime.now());
-                        return dataServiceMongoRepository.save(updated).doOnSuccess(saved -> {
-                            var updatedStatus = updated.getStatus();
-                            if (updatedStatus == Status.PUBLISHED || dataService.getStatus() != updatedStatus) {
-                                triggerHarvest(saved);
-
-                                dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(catalogId)
-                                        .count()
-                                        .doOnNext(count -> log.debug("total count of dataservices for katalog {}: {}",
-                                                catalogId, count))
-                                        .filter(count -> count == 1)
-                                        .doOnNext(count -> createNewDataSource(saved, String.format("%s/catalogs/%s",
-                                                applicationProperties.getCatalogBaseUri(),
-                                                catalogId)))
-                                        .subscribe();
-                            }
-                        });
+                        updated.setDocumentVersion(dataService.getDocumentVersion());
+                        updated.setImportedFields(dataService.getImportedFields());
+                        return dataServiceMongoRepository.save(withRdfFragment(updated))
+                                .flatMap(saved -> recordStatusChange(dataServiceId, catalogId, dataService.getStatus(), saved.getStatus())
+                                        .thenReturn(saved))
+                                .doOnSuccess(saved -> {
+                                    catalogCache.invalidate(catalogId, dataServiceId);
+                                    var updatedStatus = updated.getStatus();
+                                    if (updatedStatus == Status.PUBLISHED || dataService.getStatus() != updatedStatus) {
+                                        triggerHarvest(saved);
+                                    }
+                                    if (isPublication(dataService.getStatus(), saved.getStatus())) {
+                                        createNewDataSourceOnFirstPublication(saved, catalogId);
+                                    }
+                                })
+                                .onErrorMap(OptimisticLockingFailureException.class, error -> expectedVersions != null
+                                        ? versionMismatch(dataServiceId)
+                                        : error);
                     }
                     log.error("no dataservice with id {} exists for catalog {}", dataServiceId, catalogId, new NotFoundException());
                     return Mono.error(new NotFoundException("no dataservice found"));
+                })
+                .retryWhen(Retry.max(UPDATE_RETRIES)
+                        .filter(OptimisticLockingFailureException.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) -> new ResponseStatusException(HttpStatus.CONFLICT,
+                                "The data service kept being modified concurrently, try again later")));
+    }
+
+    /**
+     * A data service saved before data services were versioned has no documentVersion until the startup migration has
+     * reached it, and saving it with none would insert it again. It is brought to version 0 first.
+     */
+    private Mono<DataService> withDocumentVersion(DataService existing) {
+        if (existing.getDocumentVersion() != null) {
+            return Mono.just(existing);
+        }
+        return dataServiceMongoRepository.initialiseDocumentVersion(existing.getId(), existing.getOrganizationId())
+                .then(Mono.fromSupplier(() -> {
+                    existing.setDocumentVersion(0L);
+                    return existing;
+                }));
+    }
+
+    /**
+     * Applies a JSON Merge Patch (RFC 7396) as a single findAndModify that sets and unsets the patched fields only.
+     * Empty if the data service does not exist.
+     */
+    public Mono<DataService> patch(String dataServiceId, String catalogId, ObjectNode mergePatch, Set<Long> expectedVersions) {
+        Update update;
+        try {
+            update = toUpdate(mergePatch);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+        }
+        update.set("modified", LocalDateTime.now())
+                .inc("documentVersion", 1)
+                // exports render the data service live until the fragment is refreshed below
+                .unset("rdfFragment")
+                .unset("rdfFragmentFingerprint");
+
+        return applyPatch(dataServiceId, catalogId, update, expectedVersions, mergePatch.has("status"))
+                .flatMap(this::refreshRdfFragment)
+                .doOnNext(patched -> {
+                    log.debug("dataservice {} patched to version {}", dataServiceId, patched.getDocumentVersion());
+                    catalogCache.invalidate(catalogId, dataServiceId);
+                    if (patched.getStatus() == Status.PUBLISHED || mergePatch.has("status")) {
+                        triggerHarvest(patched);
+                    }
+                })
+                .doOnError(error -> log.error("error patching dataservice {}", dataServiceId, error));
+    }
+
+    /**
+     * A patch of the status reads the data service first and applies the patch to that version only, retrying if it
+     * changed in between, so the status it moved from is known. So does a patch expecting one of several versions.
+     */
+    private Mono<DataService> applyPatch(String dataServiceId, String catalogId, Update update, Set<Long> expectedVersions, boolean patchesStatus) {
+        if (!patchesStatus && (expectedVersions == null || expectedVersions.size() == 1)) {
+            Long expectedVersion = expectedVersions == null ? null : expectedVersions.iterator().next();
+            return dataServiceMongoRepository.updateFields(dataServiceId, catalogId, expectedVersion, update)
+                    .switchIfEmpty(Mono.defer(() -> expectedVersion == null
+                            ? Mono.empty()
+                            : dataServiceMongoRepository.findByIdAndOrganizationId(dataServiceId, catalogId)
+                                    .flatMap(existing -> Mono.error(versionMismatch(dataServiceId)))));
+        }
+        return dataServiceMongoRepository.findByIdAndOrganizationId(dataServiceId, catalogId)
+                .flatMap(existing -> {
+                    if (!isExpected(expectedVersions, existing.getDocumentVersion())) {
+                        return Mono.error(versionMismatch(dataServiceId));
+                    }
+                    return dataServiceMongoRepository.updateFields(dataServiceId, catalogId, existing.getDocumentVersion(), update)
+                            .flatMap(patched -> recordStatusChange(dataServiceId, catalogId, existing.getStatus(), patched.getStatus())
+                                    .thenReturn(patched))
+                            .doOnNext(patched -> {
+                                if (isPublication(existing.getStatus(), patched.getStatus())) {
+                                    createNewDataSourceOnFirstPublication(patched, catalogId);
+                                }
+                            })
+                            .switchIfEmpty(Mono.defer(() -> applyPatch(dataServiceId, catalogId, update, expectedVersions, true)));
                 });
     }
+
+    /**
+     * Unpublishing leaves a tombstone for the changes feed, so data services that were never published never show up
+     * there. Publishing again removes it.
+     */
+    private Mono<Void> recordStatusChange(String dataServiceId, String catalogId, Status previous, Status current) {
+        if (previous == Status.PUBLISHED && current != Status.PUBLISHED) {
+            return saveTombstone(dataServiceId, catalogId).then();
+        }
+        if (previous != null && previous != Status.PUBLISHED && current == Status.PUBLISHED) {
+            return dataServiceTombstoneMongoRepository.deleteById(dataServiceId)
+                    .doOnError(error -> log.error("error removing tombstone for dataservice {}", dataServiceId, error))
+                    .onErrorResume(error -> Mono.empty());
+        }
+        return Mono.empty();
+    }
+
+    private Update toUpdate(ObjectNode mergePatch) {
+        mergePatch.fieldNames().forEachRemaining(field -> {
+            if (UNPATCHABLE_FIELDS.contains(field)) {
+                throw new IllegalArgumentException(String.format("%s cannot be patched", field));
+            }
+        });
+        // unlike other fields the status cannot be removed, and it only takes the values a data service is created with
+        JsonNode status = mergePatch.get("status");
+        if (status != null && !(status.isTextual() && List.of(Status.DRAFT.name(), Status.PUBLISHED.name()).contains(status.asText()))) {
+            throw new IllegalArgumentException(String.format("status must be %s or %s", Status.DRAFT, Status.PUBLISHED));
+        }
+        try {
+            // the patched fields must still bind to a data service
+            objectMapper.treeToValue(withoutNulls(mergePatch), DataService.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage());
+        }
+        Update update = new Update();
+        addToUpdate(update, "", mergePatch);
+        return update;
+    }
+
+    private void addToUpdate(Update update, String prefix, ObjectNode mergePatch) {
+        mergePatch.fields().forEachRemaining(field -> {
+            if (field.getKey().isEmpty() || field.getKey().contains(".") || field.getKey().startsWith("$")) {
+                throw new IllegalArgumentException(String.format("invalid field name '%s'", field.getKey()));
+            }
+            String path = prefix + field.getKey();
+            JsonNode value = field.getValue();
+            if (value.isNull()) {
+                update.unset(path);
+            } else if (value.isObject()) {
+                addToUpdate(update, path + ".", (ObjectNode) value);
+            } else {
+                update.set(path, objectMapper.convertValue(value, Object.class));
+            }
+        });
+    }
+
+    private static ObjectNode withoutNulls(ObjectNode mergePatch) {
+        ObjectNode copy = mergePatch.objectNode();
+        mergePatch.fields().forEachRemaining(field -> {
+            if (field.getValue().isObject()) {
+                copy.set(field.getKey(), withoutNulls((ObjectNode) field.getValue()));
+            } else if (!field.getValue().isNull()) {
+                copy.set(field.getKey(), field.getValue());
+            }
+        });
+        return copy;
+    }
+
+    private Mono<DataService> refreshRdfFragment(DataService dataService) {
+        dcatApNoModelService.renderFragment(dataService);
+        Update update = new Update()
+                .set("rdfFragment", dataService.getRdfFragment())
+                .set("rdfFragmentFingerprint", dataService.getRdfFragmentFingerprint());
+        // a newer version saved in the meantime carries its own fragment, so this only writes the patched version
+        return dataServiceMongoRepository.updateFields(dataService.getId(), dataService.getOrganizationId(), dataService.getDocumentVersion(), update)
+                .doOnError(error -> log.error("error saving rdf fragment for dataservice {}", dataService.getId(), error))
+                .onErrorResume(error -> Mono.empty())
+                .thenReturn(dataService);
+    }
+
+    private static boolean isExpected(Set<Long> expectedVersions, Long documentVersion) {
+        return expectedVersions == null || expectedVersions.contains(documentVersion);
+    }
+
+    private ResponseStatusException versionMismatch(String dataServiceId) {
+        log.debug("dataservice {} has been modified since the version given in If-Match", dataServiceId);
+        return new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "The data service has been modified");
+    }
 }
@@ -1,34 +1,72 @@
 package no.fdk.dataservicecatalog.service;
 
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import no.fdk.dataservicecatalog.config.ApplicationProperties;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Contact;
 import no.fdk.dataservicecatalog.model.Catalog;
+import no.fdk.dataservicecatalog.model.CatalogVersion;
+import no.fdk.dataservicecatalog.model.ChangeCursor;
 import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
+import no.fdk.dataservicecatalog.model.PageCursor;
 import no.fdk.dataservicecatalog.model.Status;
 import no.fdk.dataservicecatalog.repository.DataServiceMongoRepository;
+import no.fdk.dataservicecatalog.repository.DataServiceTombstoneMongoRepository;
+import no.fdk.dataservicecatalog.service.rdf.AS;
+import no.fdk.dataservicecatalog.service.rdf.DataBufferOutputStream;
+import no.fdk.dataservicecatalog.service.rdf.DataBufferRdfWriter;
+import no.fdk.dataservicecatalog.service.rdf.HYDRA;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.reasoner.rulesys.impl.LPAgendaEntry;
 import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
 import org.apache.jena.sparql.vocabulary.FOAF;
 import org.apache.jena.util.FileUtils;
 import org.apache.jena.util.URIref;
 import org.apache.jena.vocabulary.*;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpServerErrorException;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.StringWriter;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.lang.String.format;
 import static java.util.Map.entry;
@@ -38,25 +76,95 @@ import static org.apache.jena.util.FileUtils.isURI;
 @Service
 @RequiredArgsConstructor
 public class DcatApNoModelService {
+    @Value
+    public static class Changes {
+        Model model;
+        ChangeCursor next;
+    }
+
+    private static final int FRAGMENT_RENDERER_VERSION = 1;
+    private static final int WRITE_CHUNK_SIZE = 8192;
+    private static final int PENDING_CHUNKS = 32;
+
+    private static final Map<String, String> PREFIXES = Map.ofEntries(
+            entry("dcat", DCAT.NS),
+            entry("dct", DCTerms.NS),
+            entry("rdf", RDF.uri),
+            entry("vcard", VCARD4.NS),
+            entry("foaf", FOAF.NS)
+    );
+
     private final ApplicationProperties applicationProperties;
     private final DataServiceMongoRepository dataServiceMongoRepository;
+    private final DataServiceTombstoneMongoRepository dataServiceTombstoneMongoRepository;
+    @Qualifier("rdfScheduler")
+    private final Scheduler rdfScheduler;
+    private final QueryMetrics queryMetrics;
 
     public Mono<Model> buildCatalogsModel() {
         Flux<DataService> dataServicesFlux = dataServiceMongoRepository
                 .findAllByStatus(Status.PUBLISHED)
+                .transform(queryMetrics.instrument("published"))
                 .doOnError(error -> log.error("Failed to load data services", error));
-        dataServicesFlux.count().subscribe(count -> log.info("Successfully loaded {} data services", count));
         return buildCatalogsModel(dataServicesFlux);
     }
 
+    public boolean isStreamable(Lang lang) {
+        return DataBufferRdfWriter.isStreamable(lang);
+    }
+
+    /**
+     * Streams the published data services as one document. The stream starts on the RDF scheduler, so when its queue
+     * is full the export is rejected before the first byte is written.
+     */
+    public Flux<DataBuffer> streamCatalogs(Lang lang, DataBufferFactory bufferFactory) {
+        Flux<DataService> dataServicesFlux = dataServiceMongoRepository
+                .findAllByStatus(Status.PUBLISHED)
+                .transform(queryMetrics.instrument("published"))
+                .doOnError(error -> log.error("Failed to load data services", error));
+        return Flux.defer(() -> {
+            DataBufferRdfWriter writer = new DataBufferRdfWriter(lang, bufferFactory);
+            Set<String> writtenCatalogIds = new HashSet<>();
+            return Flux.concat(
+                    Mono.fromSupplier(() -> writer.start(PREFIXES)),
+                    dataServicesFlux.publishOn(rdfScheduler).map(dataService -> writer.write(
+                            buildStreamedCatalogModel(dataService, writtenCatalogIds).getGraph(),
+                            getDataServiceFragment(dataService))),
+                    Mono.fromSupplier(writer::finish));
+        }).subscribeOn(rdfScheduler).doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
     public Mono<Model> buildCatalogModel(String catalogId) {
         Flux<DataService> dataServicesFlux = dataServiceMongoRepository
                 .findAllByOrganizationIdAndStatus(catalogId, Status.PUBLISHED)
+                .transform(queryMetrics.instrument("published-by-catalog"))
                 .doOnError(error -> log.error("Failed to load data services for catalog with ID {}", catalogId, error));
-        dataServicesFlux.count().subscribe(count -> log.info("Successfully loaded {} data services for catalog with ID {}", count, catalogId));
         return buildCatalogsModel(dataServicesFlux);
     }
 
+    public Mono<Model> buildCatalogsPageModel(String catalogId, int pageSize, PageCursor after, PageCursor before) {
+        boolean backwards = before != null;
+        return dataServiceMongoRepository
+                .findPublishedPage(catalogId, after, before, pageSize + 1)
+                .doOnError(error -> log.error("Failed to load page of data services", error))
+                .collectList()
+                .flatMap(dataServices -> {
+                    boolean hasMore = dataServices.size() > pageSize;
+                    List<DataService> page = new ArrayList<>(dataServices.subList(0, Math.min(pageSize, dataServices.size())));
+                    if (backwards) {
+                        Collections.reverse(page);
+                    }
+                    PageCursor previous = (backwards ? hasMore : after != null) && !page.isEmpty()
+                            ? PageCursor.of(page.get(0))
+                            : null;
+                    PageCursor next = (backwards || hasMore) && !page.isEmpty()
+                            ? PageCursor.of(page.get(page.size() - 1))
+                            : null;
+                    return buildCatalogsModel(Flux.fromIterable(page))
+                            .doOnNext(model -> addPageViewToModel(model, catalogId, pageSize, after, before, previous, next));
+                });
+    }
+
     public Mono<Model> buildDataServiceModel(String dataServiceId) {
         Flux<DataService> dataServiceFlux = dataServiceMongoRepository
                 .findById(dataServiceId)
@@ -65,6 +173,69 @@ public class DcatApNoModelService {
         return buildDataServiceModel(dataServiceFlux);
     }
 
+    public Mono<CatalogVersion> findCatalogsVersion() {
+        return withLatestDeletion(
+                dataServiceMongoRepository.findPublishedVersion(null),
+                dataServiceTombstoneMongoRepository.findFirstByOrderByDeletedDesc());
+    }
+
+    public Mono<CatalogVersion> findCatalogVersion(String catalogId) {
+        return withLatestDeletion(
+                dataServiceMongoRepository.findPublishedVersion(catalogId),
+                dataServiceTombstoneMongoRepository.findFirstByOrganizationIdOrderByDeletedDesc(catalogId));
+    }
+
+    public Mono<CatalogVersion> findDataServiceVersion(String dataServiceId) {
+        return withLatestDeletion(
+                dataServiceMongoRepository.findPublishedVersionById(dataServiceId),
+                dataServiceTombstoneMongoRepository.findById(dataServiceId));
+    }
+
+    /**
+     * Up to {@code limit} changes after the cursor: published data services, and tombstones for deleted or unpublished
+     * ones. Changes newer than the settle time are left for the next page, so writes that commit a little after the
+     * time they carry are not passed by the cursor.
+     */
+    public Mono<Changes> buildChangesModel(ChangeCursor after, int limit) {
+        LocalDateTime until = LocalDateTime.now().minus(applicationProperties.getChangesFeed().getSettleTime());
+        Mono<List<DataService>> changedMono = dataServiceMongoRepository
+                .findPublishedChanges(after, until, limit)
+                .doOnError(error -> log.error("Failed to load data services changed after {}", after, error))
+                .collectList();
+        Mono<List<DataServiceTombstone>> deletedMono = dataServiceTombstoneMongoRepository
+                .findChanges(after, until, limit)
+                .doOnError(error -> log.error("Failed to load data services deleted after {}", after, error))
+                .collectList();
+
+        return Mono.zip(changedMono, deletedMono).flatMap(changes -> {
+            // the first changes across both collections
+            List<Object> page = Stream.concat(changes.getT1().stream(), changes.getT2().stream())
+                    .sorted(Comparator.comparing(DcatApNoModelService::changeCursor, ChangeCursor.ORDER))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+            List<DataService> changed = page.stream()
+                    .filter(DataService.class::isInstance).map(DataService.class::cast)
+                    .collect(Collectors.toList());
+            List<DataServiceTombstone> deleted = page.stream()
+                    .filter(DataServiceTombstone.class::isInstance).map(DataServiceTombstone.class::cast)
+                    .collect(Collectors.toList());
+            log.info("Found {} changed and {} deleted data services after {}", changed.size(), deleted.size(), after);
+
+            ChangeCursor next = page.isEmpty() ? after : changeCursor(page.get(page.size() - 1));
+            return buildCatalogsModel(Flux.fromIterable(changed)).map(model -> {
+                model.setNsPrefix("as", AS.NS);
+                deleted.forEach(tombstone -> addTombstoneToModel(model, tombstone.getId(), tombstone.getDeleted()));
+                return new Changes(model, next);
+            });
+        });
+    }
+
+    private static ChangeCursor changeCursor(Object change) {
+        return change instanceof DataService
+                ? ChangeCursor.of((DataService) change)
+                : ChangeCursor.of((DataServiceTombstone) change);
+    }
+
     public Lang jenaLangFromAcceptHeader(List<MediaType> accept) {
         if (accept == null) return Lang.TURTLE;
         if (accept.isEmpty()) return Lang.TURTLE;
@@ -81,30 +252,115 @@ public class DcatApNoModelService {
         else throw new HttpServerErrorException(HttpStatus.NOT_ACCEPTABLE);
     }
 
+    /**
+     * Serialises the model straight into buffers from the given factory, in chunks of {@value #WRITE_CHUNK_SIZE} bytes.
+     * Each chunk is emitted as soon as it is full. At most {@value #PENDING_CHUNKS} chunks are written ahead of what the
+     * subscriber has taken; past that the serialiser waits for it, and gives up with an error sent after those chunks
+     * if it has not taken one within the write timeout. A cancelled subscriber stops the serialiser at its next chunk. Waiting blocks, so the
+     * writer runs on the bounded elastic scheduler rather than the RDF scheduler, and requests are taken on the
+     * subscriber's thread, as queued on the scheduler they would wait behind the serialiser.
+     */
+    public Flux<DataBuffer> write(Model model, Lang lang, DataBufferFactory bufferFactory) {
+        Duration timeout = applicationProperties.getRdfScheduler().getWriteTimeout();
+        return Flux.defer(() -> {
+            Semaphore pending = new Semaphore(PENDING_CHUNKS);
+            return Flux.<DataBuffer>create(sink -> {
+                        // wakes a waiting serialiser, which then finds the sink cancelled
+                        sink.onDispose(() -> pending.release(PENDING_CHUNKS));
+                        DataBufferOutputStream output = new DataBufferOutputStream(bufferFactory, WRITE_CHUNK_SIZE, chunk -> {
+                            if (!acquire(pending, timeout) || sink.isCancelled()) {
+                                DataBufferUtils.release(chunk);
+                                throw sink.isCancelled()
+                                        ? new CancellationException()
+                                        : Exceptions.propagate(new TimeoutException(format("Subscriber did not take the %s output within %s", lang.getName(), timeout)));
+                            }
+                            sink.next(chunk);
+                        });
+                        try {
+                            model.write(output, lang.getName());
+                            output.close();
+                            sink.complete();
+                        } catch (RuntimeException e) {
+                            output.release();
+                            // a cancelled subscriber stops the serialiser by failing its next write
+                            if (!sink.isCancelled()) {
+                                sink.error(Exceptions.unwrap(e));
+                            }
+                        }
+                    }, FluxSink.OverflowStrategy.BUFFER)
+                    .limitRate(PENDING_CHUNKS)
+                    .doOnNext(chunk -> pending.release());
+        }).subscribeOn(Schedulers.boundedElastic(), false).doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    private static boolean acquire(Semaphore pending, Duration timeout) {
+        try {
+            return pending.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     public String serialise(Model model, Lang lang) {
         StringWriter stringWriter = new StringWriter();
         model.write(stringWriter, lang.getName());
         return stringWriter.getBuffer().toString();
     }
 
+    /**
+     * Renders the data service triples as N-Triples and keeps them on the data service, to be saved with it.
+     */
+    public DataService renderFragment(DataService dataService) {
+        dataService.setRdfFragment(renderDataServiceFragment(dataService));
+        dataService.setRdfFragmentFingerprint(getFragmentFingerprint());
+        return dataService;
+    }
+
+    private boolean hasCurrentFragment(DataService dataService) {
+        return dataService.getRdfFragment() != null && getFragmentFingerprint().equals(dataService.getRdfFragmentFingerprint());
+    }
+
+    private String getDataServiceFragment(DataService dataService) {
+        return hasCurrentFragment(dataService) ? dataService.getRdfFragment() : renderDataServiceFragment(dataService);
+    }
+
+    private String renderDataServiceFragment(DataService dataService) {
+        Model model = ModelFactory.createDefaultModel();
+        addDataServiceToModel(model, dataService);
+        return serialise(model, Lang.NTRIPLES);
+    }
+
+    private String getFragmentFingerprint() {
+        return format("%d|%s", FRAGMENT_RENDERER_VERSION, applicationProperties.getCatalogBaseUri());
+    }
+
+    private Mono<CatalogVersion> withLatestDeletion(Mono<CatalogVersion> version, Mono<DataServiceTombstone> latestTombstone) {
+        return version
+                .defaultIfEmpty(new CatalogVersion())
+                .zipWith(latestTombstone.map(tombstone -> Optional.ofNullable(tombstone.getDeleted())).defaultIfEmpty(Optional.empty()),
+                        (catalogVersion, deleted) -> catalogVersion.withDeleted(deleted.orElse(null)));
+    }
+
     private Model createModel() {
         return ModelFactory
                 .createDefaultModel()
-                .setNsPrefixes(
-                        Map.ofEntries(
-                                entry("dcat", DCAT.NS),
-                                entry("dct", DCTerms.NS),
-                                entry("rdf", RDF.uri),
-                                entry("vcard", VCARD4.NS),
-                                entry("foaf", FOAF.NS)
-                        )
-                );
+                .setNsPrefixes(PREFIXES);
     }
 
     private String getCatalogUri(String catalogId) {
         return format("%s/catalogs/%s", applicationProperties.getCatalogBaseUri(), catalogId);
     }
 
+    private String getCatalogsUri() {
+        return format("%s/catalogs", applicationProperties.getCatalogBaseUri());
+    }
+
+    private String getPageUri(String collectionUri, int pageSize, String cursorName, PageCursor cursor) {
+        String pageUri = format("%s?pageSize=%d", collectionUri, pageSize);
+        return cursor != null ? format("%s&%s=%s", pageUri, cursorName, cursor.encode()) : pageUri;
+    }
+
     private String getDataServiceUri(String dataServiceId) {
         return format("%s/data-services/%s", applicationProperties.getCatalogBaseUri(), dataServiceId);
     }
@@ -118,22 +374,48 @@ public class DcatApNoModelService {
     }
 
     private Mono<Model> buildDataServiceModel(Flux<DataService> dataServiceFlux) {
-        Model model = createModel();
         return dataServiceFlux
-                .doOnNext(dataService -> addDataServiceToModel(model, dataService))
-                .then()
-                .thenReturn(model);
+                .collectList()
+                .publishOn(rdfScheduler)
+                .map(dataServices -> {
+                    Model model = createModel();
+                    dataServices.forEach(dataService -> addDataServiceFragmentToModel(model, dataService));
+                    return model;
+                });
     }
 
+    private Model buildStreamedCatalogModel(DataService dataService, Set<String> writtenCatalogIds) {
+        Model model = ModelFactory.createDefaultModel();
+        if (writtenCatalogIds.add(dataService.getOrganizationId())) {
+            addCatalogToModel(model, Catalog.builder().id(dataService.getOrganizationId()).build());
+        }
+        addDataServiceToCatalog(model, dataService);
+        return model;
+    }
+
+    /**
+     * Builds the model on parallel rails on the RDF scheduler, since Jena models are not thread safe, and merges the
+     * models of the rails into the first one to finish. Data services are grouped onto the rails by catalog as they are read, so each
+     * catalog is built by one rail and the data services are never collected before building starts.
+     */
     private Mono<Model> buildCatalogsModel(Flux<DataService> dataServicesFlux) {
-        Model model = createModel();
+        int rails = applicationProperties.getRdfScheduler().getThreads();
         return dataServicesFlux
-                .groupBy(DataService::getOrganizationId)
-                .doOnNext(entry -> addCatalogToModel(model, Catalog.builder().id(entry.key()).build()))
-                .flatMap(Flux::collectList)
-                .doOnNext(dataServices -> dataServices.forEach(dataService -> addDataServiceToCatalogModel(model, dataService)))
-                .then()
-                .thenReturn(model);
+                .groupBy(dataService -> Math.floorMod(Objects.hashCode(dataService.getOrganizationId()), rails))
+                .flatMap(rail -> {
+                    Set<String> catalogIds = new HashSet<>();
+                    return rail
+                            .publishOn(rdfScheduler)
+                            .reduceWith(this::createModel, (model, dataService) -> {
+                                if (catalogIds.add(dataService.getOrganizationId())) {
+                                    addCatalogToModel(model, Catalog.builder().id(dataService.getOrganizationId()).build());
+                                }
+                                addDataServiceToCatalogModel(model, dataService);
+                                return model;
+                            });
+                }, rails)
+                .reduce(Model::add)
+                .switchIfEmpty(Mono.fromSupplier(this::createModel));
     }
 
     private void addCatalogToModel(Model model, Catalog catalog) {
@@ -148,11 +430,55 @@ public class DcatApNoModelService {
             .addProperty(OWL.sameAs, URIref.encode(getPublisherUri(catalog.getId())));
     }
 
+    private void addPageViewToModel(Model model, String catalogId, int pageSize, PageCursor after, PageCursor before,
+                                    PageCursor previous, PageCursor next) {
+        model.setNsPrefix("hydra", HYDRA.NS);
+        String collectionUri = catalogId != null ? getCatalogUri(catalogId) : getCatalogsUri();
+        Resource collection = model.createResource(URIref.encode(collectionUri));
+        if (catalogId == null) {
+            collection.addProperty(RDF.type, HYDRA.Collection);
+        }
+
+        String viewUri = after != null
+                ? getPageUri(collectionUri, pageSize, "after", after)
+                : getPageUri(collectionUri, pageSize, "before", before);
+        Resource view = model.createResource(URIref.encode(viewUri))
+                .addProperty(RDF.type, HYDRA.PartialCollectionView)
+                .addProperty(HYDRA.first, model.createResource(URIref.encode(getPageUri(collectionUri, pageSize, null, null))));
+        if (previous != null) {
+            view.addProperty(HYDRA.previous, model.createResource(URIref.encode(getPageUri(collectionUri, pageSize, "before", previous))));
+        }
+        if (next != null) {
+            view.addProperty(HYDRA.next, model.createResource(URIref.encode(getPageUri(collectionUri, pageSize, "after", next))));
+        }
+        collection.addProperty(HYDRA.view, view);
+    }
+
+    private void addTombstoneToModel(Model model, String dataServiceId, LocalDateTime deleted) {
+        model.createResource(URIref.encode(getDataServiceUri(dataServiceId)))
+                .addProperty(RDF.type, AS.Tombstone)
+                .addProperty(AS.formerType, DCAT.DataService)
+                .addProperty(AS.deleted, ResourceFactory.createTypedLiteral(
+                        DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(deleted.atZone(ZoneId.systemDefault())),
+                        XSDDatatype.XSDdateTime));
+    }
+
     private void addDataServiceToCatalogModel(Model model, DataService dataService) {
+        addDataServiceToCatalog(model, dataService);
+        addDataServiceFragmentToModel(model, dataService);
+    }
+
+    private void addDataServiceToCatalog(Model model, DataService dataService) {
         model.getProperty(URIref.encode(getCatalogUri(dataService.getOrganizationId())))
                 .addProperty(DCAT.service, model.createResource(URIref.encode(getDataServiceUri(dataService.getId()))));
+    }
 
-        addDataServiceToModel(model, dataService);
+    private void addDataServiceFragmentToModel(Model model, DataService dataService) {
+        if (hasCurrentFragment(dataService)) {
+            RDFParser.fromString(dataService.getRdfFragment()).lang(Lang.NTRIPLES).parse(model.getGraph());
+        } else {
+            addDataServiceToModel(model, dataService);
+        }
     }
 
     private void addDataServiceToModel(Model model, DataService dataService) {
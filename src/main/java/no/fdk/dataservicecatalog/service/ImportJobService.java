@@ -0,0 +1,176 @@
+package no.fdk.dataservicecatalog.service;
+
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecificationSource;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.ImportJob;
+import no.fdk.dataservicecatalog.model.Lease;
+import no.fdk.dataservicecatalog.repository.ImportJobMongoRepository;
+import no.fdk.dataservicecatalog.repository.LeaseMongoRepository;
+import org.bson.types.ObjectId;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Imports by URL in the background. Jobs are stored so their status can be polled, and run from a bounded queue with
+ * a fixed number of imports in flight; submitting to a full queue is refused with 503. The queue is in memory, so the
+ * jobs in it are marked failed when the instance stops. Every instance keeps a heartbeat lease in Mongo, and marks the
+ * unfinished jobs of instances whose heartbeat has expired as failed, so the jobs of a crashed instance are failed
+ * whether or not it comes back.
+ */
+@Slf4j
+@Service
+public class ImportJobService {
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+    private static final String HEARTBEAT_LEASE_PREFIX = "import-jobs/";
+
+    private final ImportJobMongoRepository importJobMongoRepository;
+    private final LeaseMongoRepository leaseMongoRepository;
+    private final DataServiceService dataServiceService;
+    private final Sinks.Many<ImportJob> queue;
+    private final Disposable worker;
+    private final Duration unfinishedTimeToLive;
+    private final Duration heartbeatTimeout;
+    private final String owner;
+
+    public ImportJobService(ImportJobMongoRepository importJobMongoRepository, LeaseMongoRepository leaseMongoRepository,
+                            DataServiceService dataServiceService, LeaseOwner leaseOwner, ApplicationProperties applicationProperties) {
+        this.importJobMongoRepository = importJobMongoRepository;
+        this.leaseMongoRepository = leaseMongoRepository;
+        this.dataServiceService = dataServiceService;
+        this.owner = leaseOwner.getId();
+
+        var properties = applicationProperties.getImportJobs();
+        this.unfinishedTimeToLive = properties.getUnfinishedTimeToLive();
+        this.heartbeatTimeout = properties.getHeartbeatTimeout();
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(properties.getQueueCapacity()));
+        this.worker = queue.asFlux()
+                .flatMap(this::run, properties.getConcurrency())
+                .subscribe();
+    }
+
+    /**
+     * Renews the heartbeat of this instance, then fails the unfinished jobs of the instances without one. Only jobs
+     * older than the heartbeat timeout are failed, so an instance that has just started has had its first heartbeat
+     * written before its jobs are considered.
+     */
+    @Scheduled(fixedRateString = "${application.import-jobs.heartbeat-interval:PT1M}")
+    public void heartbeat() {
+        LocalDateTime now = LocalDateTime.now();
+        leaseMongoRepository.acquire(HEARTBEAT_LEASE_PREFIX + owner, owner, heartbeatTimeout)
+                .thenMany(leaseMongoRepository.findByNameStartingWithAndExpiresAfter(HEARTBEAT_LEASE_PREFIX, now))
+                .map(Lease::getOwner)
+                .collect(Collectors.toCollection(HashSet::new))
+                .flatMap(liveOwners -> {
+                    liveOwners.add(owner);
+                    return importJobMongoRepository.failAbandoned(liveOwners, now.minus(heartbeatTimeout),
+                            "The import was interrupted when its instance stopped");
+                })
+                .subscribe(
+                        count -> {
+                            if (count > 0) {
+                                log.info("Marked {} import jobs left unfinished by stopped instances as failed", count);
+                            }
+                        },
+                        error -> log.error("Failed to mark import jobs left unfinished by stopped instances", error));
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.dispose();
+        try {
+            importJobMongoRepository.failUnfinished(owner, LocalDateTime.now().plusSeconds(1), "The import was interrupted by a shutdown")
+                    .doOnNext(count -> log.info("Marked {} unfinished import jobs as failed", count))
+                    .then(leaseMongoRepository.release(HEARTBEAT_LEASE_PREFIX + owner, owner))
+                    .block(SHUTDOWN_TIMEOUT);
+        } catch (RuntimeException e) {
+            log.error("Failed to mark unfinished import jobs as failed", e);
+        }
+    }
+
+    /**
+     * Queues an import into {@code dataServiceId}, or into a new data service if it is null.
+     */
+    public Mono<ImportJob> submit(ApiSpecificationSource source, String catalogId, String dataServiceId) {
+        LocalDateTime now = LocalDateTime.now();
+        ImportJob job = ImportJob.builder()
+                .id(new ObjectId().toHexString())
+                .organizationId(catalogId)
+                .apiSpecUrl(source.getApiSpecUrl())
+                .dataServiceId(dataServiceId)
+                .state(ImportJob.State.QUEUED)
+                .created(now)
+                .owner(owner)
+                .expires(now.plus(unfinishedTimeToLive))
+                .build();
+
+        return importJobMongoRepository.save(job)
+                .flatMap(saved -> {
+                    Sinks.EmitResult result;
+                    synchronized (queue) {
+                        // the worker updates its own copy while the caller renders the one returned here
+                        result = queue.tryEmitNext(saved.toBuilder().build());
+                    }
+                    if (result.isSuccess()) {
+                        log.debug("import job {} queued for {}", saved.getId(), saved.getApiSpecUrl());
+                        return Mono.just(saved);
+                    }
+                    log.warn("import job {} refused: {}", saved.getId(), result);
+                    return importJobMongoRepository.delete(saved)
+                            .then(Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many queued imports, try again later")));
+                });
+    }
+
+    public Mono<ImportJob> findById(String jobId, String catalogId) {
+        return importJobMongoRepository.findByIdAndOrganizationId(jobId, catalogId);
+    }
+
+    private Mono<ImportJob> run(ImportJob job) {
+        job.setState(ImportJob.State.RUNNING);
+        job.setStarted(LocalDateTime.now());
+        var source = new ApiSpecificationSource();
+        source.setApiSpecUrl(job.getApiSpecUrl());
+
+        return importJobMongoRepository.save(job)
+                .flatMap(running -> job.getDataServiceId() != null
+                        ? dataServiceService.importFromSpecification(job.getDataServiceId(), job.getOrganizationId(), source)
+                        : dataServiceService.importFromSpecification(source, job.getOrganizationId()))
+                .map(DataService::getId)
+                .map(dataServiceId -> {
+                    job.setDataServiceId(dataServiceId);
+                    job.setState(ImportJob.State.SUCCEEDED);
+                    return job;
+                })
+                .onErrorResume(error -> {
+                    log.error("import job {} failed", job.getId(), error);
+                    job.setState(ImportJob.State.FAILED);
+                    job.setError(error instanceof ResponseStatusException
+                            ? ((ResponseStatusException) error).getReason()
+                            : error.getMessage());
+                    return Mono.just(job);
+                })
+                .flatMap(finished -> {
+                    finished.setFinished(LocalDateTime.now());
+                    finished.setExpires(null);
+                    return importJobMongoRepository.save(finished);
+                })
+                .doOnNext(finished -> log.debug("import job {} {}", finished.getId(), finished.getState()))
+                .onErrorResume(error -> {
+                    log.error("could not save the outcome of import job {}", job.getId(), error);
+                    return Mono.empty();
+                });
+    }
+}
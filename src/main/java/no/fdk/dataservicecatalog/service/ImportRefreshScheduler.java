@@ -0,0 +1,73 @@
+package no.fdk.dataservicecatalog.service;
+
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.repository.LeaseMongoRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically refreshes imported data services from their specifications. Only the instance holding the lease in
+ * Mongo runs a refresh, so the sources are not fetched once per instance. The holder renews the lease when a run starts
+ * and when it ends, for one and a half intervals, so it keeps the lease between runs and another instance takes over
+ * a run after a holder that stopped without releasing it. A holder shutting down releases the lease.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "application.import-refresh.enabled", matchIfMissing = true)
+public class ImportRefreshScheduler {
+    private static final String LEASE = "import-refresh";
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final DataServiceService dataServiceService;
+    private final LeaseMongoRepository leaseMongoRepository;
+    private final Duration leaseDuration;
+    private final String owner;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public ImportRefreshScheduler(DataServiceService dataServiceService, LeaseMongoRepository leaseMongoRepository,
+                                  LeaseOwner leaseOwner, ApplicationProperties applicationProperties) {
+        this.dataServiceService = dataServiceService;
+        this.leaseMongoRepository = leaseMongoRepository;
+        this.owner = leaseOwner.getId();
+        Duration interval = applicationProperties.getImportRefresh().getInterval();
+        this.leaseDuration = interval.plus(interval.dividedBy(2));
+    }
+
+    @Scheduled(fixedDelayString = "${application.import-refresh.interval:PT6H}",
+            initialDelayString = "${application.import-refresh.initial-delay:PT10M}")
+    public void refresh() {
+        if (!running.compareAndSet(false, true)) {
+            log.debug("import refresh still running, skipping");
+            return;
+        }
+        leaseMongoRepository.acquire(LEASE, owner, leaseDuration)
+                .doOnSuccess(lease -> {
+                    if (lease == null) {
+                        log.debug("import refresh lease is held by another instance");
+                    }
+                })
+                .flatMap(lease -> dataServiceService.refreshImported().count()
+                        .flatMap(refreshed -> leaseMongoRepository.acquire(LEASE, owner, leaseDuration).thenReturn(refreshed)))
+                .doFinally(signal -> running.set(false))
+                .subscribe(
+                        refreshed -> log.info("import refresh updated {} data services", refreshed),
+                        error -> log.error("import refresh failed", error));
+    }
+
+    @PreDestroy
+    public void releaseLease() {
+        try {
+            if (Boolean.TRUE.equals(leaseMongoRepository.release(LEASE, owner).block(SHUTDOWN_TIMEOUT))) {
+                log.info("released the import refresh lease");
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to release the import refresh lease", e);
+        }
+    }
+}
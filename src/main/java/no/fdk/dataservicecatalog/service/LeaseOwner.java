@@ -0,0 +1,26 @@
+package no.fdk.dataservicecatalog.service;
+
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+/**
+ * The owner this instance takes leases in Mongo as: its hostname, to tell instances apart when reading the leases, and
+ * a random part, so a restarted instance is not taken for the one before it.
+ */
+@Getter
+@Component
+public class LeaseOwner {
+    private final String id = hostname() + "-" + UUID.randomUUID();
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
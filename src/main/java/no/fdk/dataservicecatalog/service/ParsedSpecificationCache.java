@@ -0,0 +1,91 @@
+package no.fdk.dataservicecatalog.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Optional;
+
+/**
+ * Parsed specifications by a hash of their content, so a document imported from several URLs or mirrors is parsed
+ * once. Entries are kept serialised, which bounds the cache by size and hands every caller its own copy.
+ */
+@Slf4j
+@Service
+public class ParsedSpecificationCache {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader SPECIFICATION_READER = MAPPER.readerFor(ApiSpecification.class);
+    private static final ObjectWriter SPECIFICATION_WRITER = MAPPER.writerFor(ApiSpecification.class);
+
+    private final Cache<String, byte[]> cache;
+
+    public ParsedSpecificationCache(ApplicationProperties applicationProperties) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(applicationProperties.getParsedSpecificationCache().getMaxSize().toBytes())
+                .weigher((String hash, byte[] value) -> value.length)
+                .build();
+    }
+
+    /**
+     * SHA-256 of the bytes without a byte order mark or surrounding whitespace, and of the charset they are read in.
+     * Reads the buffer without consuming it.
+     */
+    public String hash(DataBuffer spec, Charset charset) {
+        int start = spec.readPosition();
+        int end = spec.writePosition();
+        if (end - start >= 3 && spec.getByte(start) == (byte) 0xEF && spec.getByte(start + 1) == (byte) 0xBB && spec.getByte(start + 2) == (byte) 0xBF) {
+            start += 3;
+        }
+        while (start < end && isWhitespace(spec.getByte(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(spec.getByte(end - 1))) {
+            end--;
+        }
+
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update((charset != null ? charset.name() : "detect").getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) 0);
+        digest.update(spec.asByteBuffer(start, end - start));
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    public Optional<ApiSpecification> get(String hash) {
+        byte[] cached = cache.getIfPresent(hash);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(SPECIFICATION_READER.readValue(cached));
+        } catch (IOException e) {
+            log.warn("Could not read cached specification {}", hash, e);
+            cache.invalidate(hash);
+            return Optional.empty();
+        }
+    }
+
+    public void put(String hash, ApiSpecification specification) {
+        try {
+            cache.put(hash, SPECIFICATION_WRITER.writeValueAsBytes(specification));
+        } catch (IOException e) {
+            log.warn("Could not cache specification {}", hash, e);
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,53 @@
+package no.fdk.dataservicecatalog.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Counts and times query results as they flow through the one subscription, so recording them never runs the query
+ * a second time.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QueryMetrics {
+    private final MeterRegistry meterRegistry;
+
+    public <T> Function<Flux<T>, Flux<T>> instrument(String query) {
+        return flux -> Flux.defer(() -> {
+            AtomicLong count = new AtomicLong();
+            long start = System.nanoTime();
+            return flux
+                    .doOnNext(element -> count.incrementAndGet())
+                    .doFinally(signal -> record(query, signal, count.get(), Duration.ofNanos(System.nanoTime() - start)));
+        });
+    }
+
+    private void record(String query, SignalType signal, long count, Duration duration) {
+        String outcome = signal == SignalType.ON_COMPLETE ? "success" : signal.name().toLowerCase(Locale.ROOT);
+        Timer.builder("dataservice.query")
+                .description("Time until a data service query completed")
+                .tag("query", query)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(duration);
+        DistributionSummary.builder("dataservice.query.results")
+                .description("Data services returned by a query")
+                .tag("query", query)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(count);
+        log.debug("Query {} returned {} data services in {} ms ({})", query, count, duration.toMillis(), outcome);
+    }
+}
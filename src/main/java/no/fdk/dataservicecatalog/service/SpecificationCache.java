@@ -0,0 +1,258 @@
+package no.fdk.dataservicecatalog.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Fetched specifications on local disk, keyed by URL: the validators of the response and the parsed specification.
+ * Entries are evicted least recently used first once the files grow past the maximum size, and the index is rebuilt
+ * from the directory at startup, so the cache survives restarts as long as the directory does.
+ */
+@Slf4j
+@Service
+public class SpecificationCache {
+
+    /**
+     * The response headers a conditional request revalidates with.
+     */
+    @Value
+    public static class Validators {
+        String etag;
+        String lastModified;
+
+        public static Validators from(HttpHeaders headers) {
+            return new Validators(headers.getETag(), headers.getFirst(HttpHeaders.LAST_MODIFIED));
+        }
+
+        public boolean isEmpty() {
+            return etag == null && lastModified == null;
+        }
+
+        public void applyTo(HttpHeaders headers) {
+            if (etag != null) {
+                headers.setIfNoneMatch(etag);
+            }
+            if (lastModified != null) {
+                headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    private static class Meta {
+        private String url;
+        private String etag;
+        private String lastModified;
+    }
+
+    @Value
+    private static class Entry {
+        Validators validators;
+        long size;
+    }
+
+    private static final String META = ".meta.json";
+    private static final String PARSED = ".json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectReader META_READER = MAPPER.readerFor(Meta.class);
+    private static final ObjectWriter META_WRITER = MAPPER.writerFor(Meta.class);
+    private static final ObjectReader SPECIFICATION_READER = MAPPER.readerFor(ApiSpecification.class);
+    private static final ObjectWriter SPECIFICATION_WRITER = MAPPER.writerFor(ApiSpecification.class);
+
+    private final Path directory;
+    private final long maxSize;
+    // by hash of the URL, least recently used first
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private boolean enabled;
+
+    public SpecificationCache(ApplicationProperties applicationProperties) {
+        var properties = applicationProperties.getSpecificationCache();
+        this.directory = properties.getDirectory();
+        this.maxSize = properties.getMaxSize().toBytes();
+        this.enabled = properties.isEnabled();
+        if (enabled) {
+            try {
+                Files.createDirectories(directory);
+                load();
+            } catch (IOException | UncheckedIOException e) {
+                log.error("Specification cache disabled, could not use {}", directory, e);
+                enabled = false;
+            }
+        }
+    }
+
+    public synchronized Optional<Validators> validators(String url) {
+        return Optional.ofNullable(index.get(hash(url))).map(Entry::getValidators);
+    }
+
+    /**
+     * The parsed specification stored for the URL, or empty if it is not, or no longer, cached.
+     */
+    public Mono<ApiSpecification> get(String url) {
+        String hash = hash(url);
+        return Mono.fromCallable(() -> {
+                    synchronized (this) {
+                        if (index.get(hash) == null) {
+                            return null;
+                        }
+                    }
+                    Path parsed = file(hash, PARSED);
+                    Files.setLastModifiedTime(file(hash, META), FileTime.fromMillis(System.currentTimeMillis()));
+                    return SPECIFICATION_READER.<ApiSpecification>readValue(parsed.toFile());
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(IOException.class, e -> {
+                    log.warn("Could not read cached specification for {}", url, e);
+                    remove(hash);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Stores the response on the bounded elastic scheduler, unless it has no validators to revalidate it with. A
+     * failed write is logged and leaves the URL uncached.
+     */
+    public Mono<Void> put(String url, Validators validators, ApiSpecification parsed) {
+        if (!enabled || validators.isEmpty()) {
+            return Mono.empty();
+        }
+        String hash = hash(url);
+        Meta meta = new Meta();
+        meta.setUrl(url);
+        meta.setEtag(validators.getEtag());
+        meta.setLastModified(validators.getLastModified());
+        return Mono.<Void>fromRunnable(() -> {
+                    try {
+                        long entrySize = write(hash, PARSED, target -> SPECIFICATION_WRITER.writeValue(target.toFile(), parsed));
+                        // written last, an entry is only loaded at startup once all its files are complete
+                        entrySize += write(hash, META, target -> META_WRITER.writeValue(target.toFile(), meta));
+                        add(hash, new Entry(validators, entrySize));
+                    } catch (IOException e) {
+                        log.warn("Could not cache specification for {}", url, e);
+                        remove(hash);
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private interface FileWriter {
+        void write(Path target) throws IOException;
+    }
+
+    private long write(String hash, String suffix, FileWriter writer) throws IOException {
+        Path temp = Files.createTempFile(directory, hash, ".tmp");
+        try {
+            writer.write(temp);
+            return Files.size(Files.move(temp, file(hash, suffix), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private synchronized void add(String hash, Entry entry) {
+        Entry previous = index.put(hash, entry);
+        size += entry.getSize() - (previous != null ? previous.getSize() : 0);
+        evict();
+    }
+
+    private synchronized void remove(String hash) {
+        Entry removed = index.remove(hash);
+        if (removed != null) {
+            size -= removed.getSize();
+        }
+        delete(hash);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = index.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            eldest.remove();
+            size -= entry.getValue().getSize();
+            delete(entry.getKey());
+            log.debug("Evicted cached specification {}", entry.getKey());
+        }
+    }
+
+    private void delete(String hash) {
+        for (String suffix : List.of(META, PARSED)) {
+            try {
+                Files.deleteIfExists(file(hash, suffix));
+            } catch (IOException e) {
+                log.warn("Could not delete {}", file(hash, suffix), e);
+            }
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        List<Path> metas = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + META)) {
+            files.forEach(metas::add);
+        }
+        metas.sort(Comparator.comparing(SpecificationCache::lastModified));
+
+        for (Path metaFile : metas) {
+            String name = metaFile.getFileName().toString();
+            String hash = name.substring(0, name.length() - META.length());
+            try {
+                Meta meta = META_READER.readValue(metaFile.toFile());
+                long entrySize = Files.size(metaFile) + Files.size(file(hash, PARSED));
+                index.put(hash, new Entry(new Validators(meta.getEtag(), meta.getLastModified()), entrySize));
+                size += entrySize;
+            } catch (IOException e) {
+                log.warn("Dropping incomplete cached specification {}", hash, e);
+                delete(hash);
+            }
+        }
+        evict();
+        log.info("Loaded {} cached specifications ({} bytes) from {}", index.size(), size, directory);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private Path file(String hash, String suffix) {
+        return directory.resolve(hash + suffix);
+    }
+
+    private static String hash(String url) {
+        return DigestUtils.sha256Hex(url);
+    }
+}
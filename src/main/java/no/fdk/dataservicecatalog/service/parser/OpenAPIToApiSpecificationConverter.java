@@ -1,25 +1,134 @@
 package no.fdk.dataservicecatalog.service.parser;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Paths;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
-import no.fdk.dataservicecatalog.exceptions.ParseException;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ExternalDocumentation;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Contact;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Info;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.info.License;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.paths.Operation;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.paths.PathItem;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.servers.Server;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Copies the parts of the swagger-parser model that we keep straight into our DTOs, field by field. Everything else in
+ * the model (schemas, parameters, extensions) is never touched.
+ */
 public class OpenAPIToApiSpecificationConverter {
-    public static ApiSpecification convert(OpenAPI openAPI) throws ParseException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    public static ApiSpecification convert(OpenAPI openAPI) {
+        ApiSpecification apiSpecification = new ApiSpecification();
+        apiSpecification.setInfo(convert(openAPI.getInfo()));
+        apiSpecification.setPaths(convert(openAPI.getPaths()));
+        apiSpecification.setExternalDocs(convert(openAPI.getExternalDocs()));
+        apiSpecification.setServers(convertServers(openAPI.getServers()));
+        return apiSpecification;
+    }
 
-        ApiSpecification apiSpecification;
+    private static Info convert(io.swagger.v3.oas.models.info.Info source) {
+        if (source == null) {
+            return null;
+        }
+        Info info = new Info();
+        info.setTitle(source.getTitle());
+        info.setDescription(source.getDescription());
+        info.setTermsOfService(source.getTermsOfService());
+        info.setContact(convert(source.getContact()));
+        info.setLicense(convert(source.getLicense()));
+        info.setVersion(source.getVersion());
+        return info;
+    }
 
-        try {
-            String json = objectMapper.writeValueAsString(openAPI);
-            apiSpecification = objectMapper.readValue(json, ApiSpecification.class);
-        } catch (Throwable e) {
-            throw new ParseException("Error converting OpenAPI to ApiSpecification: " + e.getMessage());
+    private static Contact convert(io.swagger.v3.oas.models.info.Contact source) {
+        if (source == null) {
+            return null;
         }
+        return Contact.builder()
+                .name(source.getName())
+                .url(source.getUrl())
+                .email(source.getEmail())
+                .build();
+    }
 
-        return apiSpecification;
+    private static License convert(io.swagger.v3.oas.models.info.License source) {
+        if (source == null) {
+            return null;
+        }
+        License license = new License();
+        license.setName(source.getName());
+        license.setUrl(source.getUrl());
+        return license;
+    }
+
+    private static Map<String, PathItem> convert(Paths source) {
+        if (source == null) {
+            return null;
+        }
+        Map<String, PathItem> paths = new LinkedHashMap<>(Math.max(16, source.size() * 4 / 3 + 1));
+        source.forEach((path, pathItem) -> paths.put(path, convert(pathItem)));
+        return paths;
+    }
+
+    private static PathItem convert(io.swagger.v3.oas.models.PathItem source) {
+        if (source == null) {
+            return null;
+        }
+        PathItem pathItem = new PathItem();
+        pathItem.setSummary(source.getSummary());
+        pathItem.setDescription(source.getDescription());
+        pathItem.setGet(convert(source.getGet()));
+        pathItem.setPut(convert(source.getPut()));
+        pathItem.setPost(convert(source.getPost()));
+        pathItem.setDelete(convert(source.getDelete()));
+        pathItem.setOptions(convert(source.getOptions()));
+        pathItem.setHead(convert(source.getHead()));
+        pathItem.setPatch(convert(source.getPatch()));
+        pathItem.setTrace(convert(source.getTrace()));
+        return pathItem;
+    }
+
+    private static Operation convert(io.swagger.v3.oas.models.Operation source) {
+        if (source == null) {
+            return null;
+        }
+        Operation operation = new Operation();
+        operation.setSummary(source.getSummary());
+        operation.setDescription(source.getDescription());
+        operation.setExternalDocs(convert(source.getExternalDocs()));
+        return operation;
+    }
+
+    private static ExternalDocumentation convert(io.swagger.v3.oas.models.ExternalDocumentation source) {
+        if (source == null) {
+            return null;
+        }
+        ExternalDocumentation externalDocs = new ExternalDocumentation();
+        externalDocs.setDescription(source.getDescription());
+        externalDocs.setUrl(source.getUrl());
+        return externalDocs;
+    }
+
+    private static List<Server> convertServers(List<io.swagger.v3.oas.models.servers.Server> source) {
+        if (source == null) {
+            return null;
+        }
+        return source.stream()
+                .map(OpenAPIToApiSpecificationConverter::convert)
+                .collect(Collectors.toList());
+    }
+
+    private static Server convert(io.swagger.v3.oas.models.servers.Server source) {
+        if (source == null) {
+            return null;
+        }
+        Server server = new Server();
+        server.setUrl(source.getUrl());
+        server.setDescription(source.getDescription());
+        return server;
     }
 }
@@ -1,5 +1,6 @@
 package no.fdk.dataservicecatalog.service.parser;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.Operation;
 import io.swagger.v3.oas.models.PathItem;
@@ -21,13 +22,23 @@ import java.util.stream.Stream;
 
 public class OpenApiV3JsonParser implements Parser {
 
-    public boolean canParse(String spec) {
-        return Parser.isValidSwaggerOrOpenApiV3(spec, ApiType.OPENAPI, "3");
+    public boolean canParse(SpecificationHeader header) {
+        return header.isValid(ApiType.OPENAPI, "3");
     }
 
     public OpenAPI parseToOpenAPI(String spec) throws ParseException {
+        return parseToOpenAPI(SpecificationReader.readTree(spec));
+    }
+
+    public OpenAPI parseToOpenAPI(JsonNode spec) throws ParseException {
         try {
-            return new OpenAPIV3Parser().readContents(spec, null, null).getOpenAPI();
+            OpenAPI openAPI = new OpenAPIV3Parser().parseJsonNode(null, spec).getOpenAPI();
+            if (openAPI == null) {
+                throw new ParseException("Error parsing spec as OpenApi v3 json");
+            }
+            return openAPI;
+        } catch (ParseException e) {
+            throw e;
         } catch (Throwable e) {
             throw new ParseException("Error parsing spec as OpenApi v3 json: " + e.getMessage());
         }
@@ -48,7 +59,7 @@ public class OpenApiV3JsonParser implements Parser {
                 .collect(Collectors.toSet());
     }
 
-    public ApiSpecification parse(String spec) throws ParseException {
+    public ApiSpecification parse(JsonNode spec) throws ParseException {
         OpenAPI openAPI = parseToOpenAPI(spec);
         ApiSpecification apiSpecification = OpenAPIToApiSpecificationConverter.convert(openAPI);
 
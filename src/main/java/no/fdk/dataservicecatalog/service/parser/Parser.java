@@ -1,7 +1,6 @@
 package no.fdk.dataservicecatalog.service.parser;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
 import no.fdk.dataservicecatalog.exceptions.ParseException;
 
@@ -19,31 +18,15 @@ public interface Parser {
 
     }
 
-    boolean canParse(String spec);
-
-    ApiSpecification parse(String spec) throws ParseException;
-
-    static boolean isValidSwaggerOrOpenApiV3(String spec, ApiType apiType, String minimalVersion) {
-        try {
-            JsonElement element = new JsonParser().parse(spec);
-            String version = element.getAsJsonObject().get(apiType.label).getAsString();
-            if (!(version.length() > 2 && version.startsWith(minimalVersion))) {
-                return false;
-            }
-
-            JsonElement info = element.getAsJsonObject().get("info");
-            if (info == null) {
-                return false;
-            }
-
-            String title = info.getAsJsonObject().get("title").getAsString();
-            if (title == null || title.isEmpty()) {
-                return false;
-            }
-            String documentVersion = info.getAsJsonObject().get("version").getAsString();
-            return documentVersion != null && !documentVersion.isEmpty();
-        } catch (Exception e) {
-            return false;
-        }
+    default boolean canParse(String spec) {
+        return canParse(SpecificationHeader.sniff(spec));
     }
+
+    boolean canParse(SpecificationHeader header);
+
+    default ApiSpecification parse(String spec) throws ParseException {
+        return parse(SpecificationReader.readTree(spec));
+    }
+
+    ApiSpecification parse(JsonNode spec) throws ParseException;
 }
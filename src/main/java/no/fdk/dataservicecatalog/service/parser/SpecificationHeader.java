@@ -0,0 +1,93 @@
+package no.fdk.dataservicecatalog.service.parser;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Value;
+
+import java.io.IOException;
+
+/**
+ * The top level fields that tell which parser a specification needs. They are read in a single streaming pass that
+ * skips everything else and stops once the type and info have been seen, so detection costs a fraction of a parse.
+ */
+@Value
+public class SpecificationHeader {
+    private static final SpecificationHeader NONE = new SpecificationHeader(null, null, null, null);
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .enable(JsonReadFeature.ALLOW_JAVA_COMMENTS)
+            .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonReadFeature.ALLOW_UNQUOTED_FIELD_NAMES)
+            .build();
+
+    Parser.ApiType apiType;
+    //value of the openapi or swagger field
+    String apiTypeVersion;
+    String title;
+    String version;
+
+    public static SpecificationHeader sniff(String spec) {
+        try (JsonParser parser = JSON_FACTORY.createParser(spec)) {
+            return sniff(parser);
+        } catch (IOException e) {
+            return NONE;
+        }
+    }
+
+    public static SpecificationHeader sniff(JsonNode spec) {
+        try (JsonParser parser = spec.traverse()) {
+            return sniff(parser);
+        } catch (IOException e) {
+            return NONE;
+        }
+    }
+
+    private static SpecificationHeader sniff(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return NONE;
+        }
+
+        Parser.ApiType apiType = null;
+        String apiTypeVersion = null;
+        String title = null;
+        String version = null;
+        boolean infoRead = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME && !(apiType != null && infoRead)) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value.isScalarValue() && Parser.ApiType.OPENAPI.label.equals(field)) {
+                apiType = Parser.ApiType.OPENAPI;
+                apiTypeVersion = parser.getValueAsString();
+            } else if (value.isScalarValue() && Parser.ApiType.SWAGGER.label.equals(field)) {
+                apiType = Parser.ApiType.SWAGGER;
+                apiTypeVersion = parser.getValueAsString();
+            } else if (value == JsonToken.START_OBJECT && "info".equals(field)) {
+                infoRead = true;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String infoField = parser.getCurrentName();
+                    JsonToken infoValue = parser.nextToken();
+                    if (infoValue.isScalarValue() && "title".equals(infoField)) {
+                        title = parser.getValueAsString();
+                    } else if (infoValue.isScalarValue() && "version".equals(infoField)) {
+                        version = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new SpecificationHeader(apiType, apiTypeVersion, title, version);
+    }
+
+    public boolean isValid(Parser.ApiType apiType, String minimalVersion) {
+        return this.apiType == apiType
+                && apiTypeVersion != null && apiTypeVersion.length() > 2 && apiTypeVersion.startsWith(minimalVersion)
+                && title != null && !title.isEmpty()
+                && version != null && !version.isEmpty();
+    }
+}
@@ -0,0 +1,42 @@
+package no.fdk.dataservicecatalog.service.parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import no.fdk.dataservicecatalog.exceptions.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Reads specifications into the JSON tree the swagger parsers work on.
+ */
+final class SpecificationReader {
+    private static final ObjectReader TREE_READER = new ObjectMapper().reader();
+
+    private SpecificationReader() {
+    }
+
+    static JsonNode readTree(String spec) throws ParseException {
+        try {
+            return TREE_READER.readTree(spec);
+        } catch (IOException e) {
+            throw new ParseException("Specification is not valid json: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the bytes as {@code charset}, or detects UTF-8, UTF-16 or UTF-32 from the bytes themselves if it is null.
+     */
+    static JsonNode readTree(InputStream spec, Charset charset) throws ParseException {
+        try {
+            return charset == null
+                    ? TREE_READER.readTree(spec)
+                    : TREE_READER.readTree(new InputStreamReader(spec, charset));
+        } catch (IOException e) {
+            throw new ParseException("Specification is not valid json: " + e.getMessage());
+        }
+    }
+}
@@ -1,24 +1,45 @@
 package no.fdk.dataservicecatalog.service.parser;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import io.swagger.parser.Swagger20Parser;
+import io.swagger.parser.SwaggerResolver;
+import io.swagger.parser.util.SwaggerDeserializationResult;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.parser.converter.SwaggerConverter;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
 import no.fdk.dataservicecatalog.exceptions.ParseException;
 
+import java.util.ArrayList;
+
 public class SwaggerJsonParser implements Parser {
-    public boolean canParse(String spec) {
-        return Parser.isValidSwaggerOrOpenApiV3(spec, ApiType.SWAGGER, "2");
+    public boolean canParse(SpecificationHeader header) {
+        return header.isValid(ApiType.SWAGGER, "2");
     }
 
     public OpenAPI parseToOpenAPI(String spec) throws ParseException {
+        return parseToOpenAPI(SpecificationReader.readTree(spec));
+    }
+
+    public OpenAPI parseToOpenAPI(JsonNode spec) throws ParseException {
         try {
-            return new SwaggerConverter().readContents(spec, null, null).getOpenAPI();
+            // what SwaggerConverter.readContents does after reading the string into a tree
+            SwaggerDeserializationResult result = new Swagger20Parser().readWithInfo(spec);
+            if (result.getSwagger() != null) {
+                result.setSwagger(new SwaggerResolver(result.getSwagger(), new ArrayList<>(), null).resolve());
+            }
+            OpenAPI openAPI = new SwaggerConverter().convert(result).getOpenAPI();
+            if (openAPI == null) {
+                throw new ParseException("Error parsing spec as Swagger v2 json");
+            }
+            return openAPI;
+        } catch (ParseException e) {
+            throw e;
         } catch (Throwable e) {
             throw new ParseException("Error parsing spec as Swagger v2 json: " + e.getMessage());
         }
     }
 
-    public ApiSpecification parse(String spec) throws ParseException {
+    public ApiSpecification parse(JsonNode spec) throws ParseException {
         OpenAPI openAPI = parseToOpenAPI(spec);
         ApiSpecification apiSpecification = OpenAPIToApiSpecificationConverter.convert(openAPI);
 
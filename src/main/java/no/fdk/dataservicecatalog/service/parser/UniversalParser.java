@@ -1,8 +1,11 @@
 package no.fdk.dataservicecatalog.service.parser;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
 import no.fdk.dataservicecatalog.exceptions.ParseException;
 
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 
 public class UniversalParser implements Parser {
@@ -11,17 +14,32 @@ public class UniversalParser implements Parser {
         new SwaggerJsonParser()
     };
 
-    public boolean canParse(String spec) {
-        return Arrays.stream(parsers).anyMatch(parser -> parser.canParse(spec));
+    public boolean canParse(SpecificationHeader header) {
+        return Arrays.stream(parsers).anyMatch(parser -> parser.canParse(header));
     }
 
     public ApiSpecification parse(String spec) throws ParseException {
+        // detection only sniffs the header, so the spec is fully parsed once, by the selected parser
+        Parser selectedParser = select(SpecificationHeader.sniff(spec));
 
-        Parser selectedParser = Arrays.stream(parsers)
-            .filter(parser -> parser.canParse(spec))
+        return selectedParser.parse(SpecificationReader.readTree(spec));
+    }
+
+    /**
+     * Parses the specification straight from its bytes, see {@link SpecificationReader#readTree(InputStream, Charset)}.
+     */
+    public ApiSpecification parse(InputStream spec, Charset charset) throws ParseException {
+        return parse(SpecificationReader.readTree(spec, charset));
+    }
+
+    public ApiSpecification parse(JsonNode spec) throws ParseException {
+        return select(SpecificationHeader.sniff(spec)).parse(spec);
+    }
+
+    private Parser select(SpecificationHeader header) throws ParseException {
+        return Arrays.stream(parsers)
+            .filter(parser -> parser.canParse(header))
             .findFirst()
             .orElseThrow(() -> new ParseException("Source specification is not valid"));
-
-        return selectedParser.parse(spec);
     }
 }
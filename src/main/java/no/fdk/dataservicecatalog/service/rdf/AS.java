@@ -0,0 +1,17 @@
+package no.fdk.dataservicecatalog.service.rdf;
+
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+/**
+ * The parts of the Activity Streams 2.0 vocabulary used for tombstones, https://www.w3.org/ns/activitystreams
+ */
+public class AS {
+    public static final String NS = "https://www.w3.org/ns/activitystreams#";
+
+    public static final Resource Tombstone = ResourceFactory.createResource(NS + "Tombstone");
+
+    public static final Property deleted = ResourceFactory.createProperty(NS, "deleted");
+    public static final Property formerType = ResourceFactory.createProperty(NS, "formerType");
+}
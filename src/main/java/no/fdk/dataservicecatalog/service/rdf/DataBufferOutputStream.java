@@ -0,0 +1,75 @@
+package no.fdk.dataservicecatalog.service.rdf;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Writes into fixed size buffers from the given factory and hands each one on as soon as it is full, so a serialiser
+ * can write straight into pooled response buffers without going through an intermediate String or byte array. The
+ * last, partly filled buffer is handed on by {@link #close()}.
+ */
+public class DataBufferOutputStream extends OutputStream {
+    private final DataBufferFactory bufferFactory;
+    private final int chunkSize;
+    private final Consumer<DataBuffer> onChunk;
+    private DataBuffer current;
+
+    public DataBufferOutputStream(DataBufferFactory bufferFactory, int chunkSize, Consumer<DataBuffer> onChunk) {
+        this.bufferFactory = bufferFactory;
+        this.chunkSize = chunkSize;
+        this.onChunk = onChunk;
+    }
+
+    @Override
+    public void write(int b) {
+        nextChunkIfFull();
+        current.write((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            nextChunkIfFull();
+            int count = Math.min(length, current.writableByteCount());
+            current.write(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void close() {
+        DataBuffer last = current;
+        current = null;
+        if (last != null && last.readableByteCount() > 0) {
+            onChunk.accept(last);
+        } else if (last != null) {
+            DataBufferUtils.release(last);
+        }
+    }
+
+    /**
+     * Releases the buffer being written, for when the serialiser fails.
+     */
+    public void release() {
+        if (current != null) {
+            DataBufferUtils.release(current);
+            current = null;
+        }
+    }
+
+    private void nextChunkIfFull() {
+        if (current != null && current.writableByteCount() == 0) {
+            DataBuffer full = current;
+            current = null;
+            onChunk.accept(full);
+        }
+        if (current == null) {
+            current = bufferFactory.allocateBuffer(chunkSize);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package no.fdk.dataservicecatalog.service.rdf;
+
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.riot.writer.WriterStreamRDFBlocks;
+import org.apache.jena.riot.writer.WriterStreamRDFPlain;
+import org.apache.jena.sparql.util.Context;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes RDF through one Jena streaming writer, handing out what has been written so far as a {@link DataBuffer}
+ * after every step. Using a single writer for the whole document keeps prefixes and blank node labels consistent
+ * across buffers.
+ */
+public class DataBufferRdfWriter {
+    private static final List<Lang> STREAMABLE = List.of(Lang.TURTLE, Lang.N3, Lang.TRIG, Lang.NTRIPLES, Lang.NQUADS);
+
+    private final DataBufferFactory bufferFactory;
+    private final BufferOutputStream output = new BufferOutputStream();
+    private final IndentedWriter writer = new IndentedWriter(output);
+    private final StreamRDF stream;
+    private final boolean plain;
+
+    public DataBufferRdfWriter(Lang lang, DataBufferFactory bufferFactory) {
+        if (!isStreamable(lang)) {
+            throw new IllegalArgumentException(String.format("%s can not be written as a stream", lang.getName()));
+        }
+        this.bufferFactory = bufferFactory;
+        this.plain = lang == Lang.NTRIPLES || lang == Lang.NQUADS;
+        this.stream = plain
+                ? new WriterStreamRDFPlain(writer)
+                : new WriterStreamRDFBlocks(writer, Context.emptyContext);
+    }
+
+    public static boolean isStreamable(Lang lang) {
+        return STREAMABLE.contains(lang);
+    }
+
+    public DataBuffer start(Map<String, String> prefixes) {
+        return step(() -> {
+            stream.start();
+            prefixes.forEach(stream::prefix);
+        });
+    }
+
+    public DataBuffer write(Graph graph) {
+        return step(() -> graph.find().forEachRemaining(stream::triple));
+    }
+
+    /**
+     * Writes the graph followed by triples given as N-Triples. Line based output gets the N-Triples as they are,
+     * other formats parse them into the writer.
+     */
+    public DataBuffer write(Graph graph, String nTriples) {
+        return step(() -> {
+            graph.find().forEachRemaining(stream::triple);
+            if (plain) {
+                writer.print(nTriples);
+            } else {
+                RDFParser.fromString(nTriples).lang(Lang.NTRIPLES).parse(new TriplesOnly(stream));
+            }
+        });
+    }
+
+    public DataBuffer finish() {
+        return step(stream::finish);
+    }
+
+    private DataBuffer step(Runnable action) {
+        DataBuffer buffer = bufferFactory.allocateBuffer();
+        output.target = buffer.asOutputStream();
+        try {
+            action.run();
+            writer.flush();
+            return buffer;
+        } catch (RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e;
+        } finally {
+            output.target = null;
+        }
+    }
+
+    private static class TriplesOnly extends StreamRDFWrapper {
+        private TriplesOnly(StreamRDF stream) {
+            super(stream);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+
+    private static class BufferOutputStream extends OutputStream {
+        private OutputStream target;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target.write(bytes, offset, length);
+        }
+    }
+}
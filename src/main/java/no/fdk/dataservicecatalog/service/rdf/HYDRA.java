@@ -0,0 +1,20 @@
+package no.fdk.dataservicecatalog.service.rdf;
+
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+/**
+ * The parts of the Hydra Core Vocabulary used for paging, https://www.w3.org/ns/hydra/core
+ */
+public class HYDRA {
+    public static final String NS = "http://www.w3.org/ns/hydra/core#";
+
+    public static final Resource Collection = ResourceFactory.createResource(NS + "Collection");
+    public static final Resource PartialCollectionView = ResourceFactory.createResource(NS + "PartialCollectionView");
+
+    public static final Property view = ResourceFactory.createProperty(NS, "view");
+    public static final Property first = ResourceFactory.createProperty(NS, "first");
+    public static final Property next = ResourceFactory.createProperty(NS, "next");
+    public static final Property previous = ResourceFactory.createProperty(NS, "previous");
+}
@@ -1,14 +1,27 @@
 package no.fdk.dataservicecatalog.controller;
 
 import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Contact;
+import no.fdk.dataservicecatalog.model.CatalogVersion;
+import no.fdk.dataservicecatalog.model.ChangeCursor;
 import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.DataServiceTombstone;
+import no.fdk.dataservicecatalog.model.PageCursor;
 import no.fdk.dataservicecatalog.model.Status;
 import no.fdk.dataservicecatalog.repository.DataServiceMongoRepository;
+import no.fdk.dataservicecatalog.repository.DataServiceTombstoneMongoRepository;
+import no.fdk.dataservicecatalog.service.CatalogCache;
+import no.fdk.dataservicecatalog.service.rdf.AS;
+import no.fdk.dataservicecatalog.service.rdf.HYDRA;
 import no.fdk.dataservicecatalog.utils.TestData;
 import org.apache.jena.ext.com.google.common.net.HttpHeaders;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
@@ -20,6 +33,9 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -28,8 +44,15 @@ import java.util.Set;
 import static java.lang.String.format;
 import static java.util.Map.entry;
 import static java.util.Objects.requireNonNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -38,9 +61,26 @@ public class CatalogHandlerTest {
     @Autowired
     private WebTestClient webTestClient;
 
+    @Autowired
+    private CatalogCache catalogCache;
+
     @MockBean
     private DataServiceMongoRepository dataServiceMongoRepository;
 
+    @MockBean
+    private DataServiceTombstoneMongoRepository dataServiceTombstoneMongoRepository;
+
+    @BeforeEach
+    void clearCache() {
+        catalogCache.invalidateAll();
+
+        when(dataServiceMongoRepository.findPublishedVersion(any())).thenReturn(Mono.empty());
+        when(dataServiceMongoRepository.findPublishedVersionById(any())).thenReturn(Mono.empty());
+        when(dataServiceTombstoneMongoRepository.findFirstByOrderByDeletedDesc()).thenReturn(Mono.empty());
+        when(dataServiceTombstoneMongoRepository.findFirstByOrganizationIdOrderByDeletedDesc(any())).thenReturn(Mono.empty());
+        when(dataServiceTombstoneMongoRepository.findById(any(String.class))).thenReturn(Mono.empty());
+    }
+
     @Test
     void mustCorrectlyListCatalogsInRdfFormatWhenCatalogsDoNotExist() {
         Flux<DataService> dataServices = Flux.just();
@@ -94,6 +134,35 @@ public class CatalogHandlerTest {
                 });
     }
 
+    @Test
+    void mustCorrectlyListCatalogsInNTriplesAndRdfXmlFormat() {
+        for (String mediaType : List.of("application/n-triples", "application/rdf+xml")) {
+            Flux<DataService> dataServices = Flux.merge(
+                    Flux.fromIterable(TestData.createDataServices("catalog-id-1")),
+                    Flux.fromIterable(TestData.createDataServices("catalog-id-2"))
+            );
+
+            when(dataServiceMongoRepository.findAllByStatus(Status.PUBLISHED)).thenReturn(dataServices);
+
+            Model expectedModel = RDFDataMgr.loadModel("catalogs.ttl");
+
+            webTestClient
+                    .get()
+                    .uri("/catalogs")
+                    .accept(MediaType.valueOf(mediaType))
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBody()
+                    .consumeWith(response -> {
+                        Model model = ModelFactory.createDefaultModel().read(new StringReader(new String(requireNonNull(response.getResponseBody()))), null, RDFLanguages.contentTypeToLang(mediaType).getName());
+
+                        assertNotNull(model);
+                        assertTrue(model.isIsomorphicWith(expectedModel));
+                    });
+        }
+    }
+
     @Test
     void mustCorrectlyListCatalogsInRdfFormatWhenCatalogDoesNotExist() {
         String catalogId = "catalog-id-1";
@@ -172,4 +241,208 @@ public class CatalogHandlerTest {
                     assertTrue(model.isIsomorphicWith(expectedModel));
                 });
     }
+
+    @Test
+    void mustServeCatalogFromCacheUntilInvalidated() {
+        String catalogId = "catalog-id-1";
+
+        when(dataServiceMongoRepository.findAllByOrganizationIdAndStatus(catalogId, Status.PUBLISHED))
+                .thenAnswer(invocation -> Flux.fromIterable(TestData.createDataServices(catalogId)));
+
+        Model expectedModel = RDFDataMgr.loadModel("catalog.ttl");
+
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                catalogCache.invalidate(catalogId, "some-data-service");
+            }
+            webTestClient
+                    .get()
+                    .uri(format("/catalogs/%s", catalogId))
+                    .accept(MediaType.valueOf("text/turtle"))
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectBody()
+                    .consumeWith(response -> {
+                        Model model = ModelFactory.createDefaultModel().read(new StringReader(new String(requireNonNull(response.getResponseBody()))), null, "TURTLE");
+
+                        assertTrue(model.isIsomorphicWith(expectedModel));
+                    });
+        }
+
+        verify(dataServiceMongoRepository, times(2)).findAllByOrganizationIdAndStatus(catalogId, Status.PUBLISHED);
+    }
+
+    @Test
+    void mustAnswerNotModifiedWithoutLoadingDataServicesWhenValidatorsMatch() {
+        LocalDateTime modified = LocalDateTime.of(2021, 6, 1, 12, 0, 0);
+
+        when(dataServiceMongoRepository.findPublishedVersion(isNull()))
+                .thenReturn(Mono.just(new CatalogVersion(26, modified.minusDays(1), modified)));
+        when(dataServiceMongoRepository.findAllByStatus(Status.PUBLISHED)).thenReturn(Flux.just());
+
+        String eTag = webTestClient
+                .get()
+                .uri("/catalogs")
+                .accept(MediaType.valueOf("text/turtle"))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .lastModified(modified.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())
+                .returnResult(String.class)
+                .getResponseHeaders()
+                .getETag();
+
+        assertNotNull(eTag);
+
+        webTestClient
+                .get()
+                .uri("/catalogs")
+                .accept(MediaType.valueOf("text/turtle"))
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+
+        webTestClient
+                .get()
+                .uri("/catalogs")
+                .accept(MediaType.valueOf("text/turtle"))
+                .ifModifiedSince(ZonedDateTime.of(modified, ZoneId.systemDefault()))
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+
+        webTestClient
+                .get()
+                .uri("/catalogs")
+                .accept(MediaType.valueOf("application/n-triples"))
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        verify(dataServiceMongoRepository, times(2)).findAllByStatus(Status.PUBLISHED);
+    }
+
+    @Test
+    void mustListPageOfCatalogWithHydraLinks() {
+        String catalogId = "catalog-id-1";
+        List<DataService> dataServices = TestData.createDataServices(catalogId);
+        PageCursor after = PageCursor.of(dataServices.get(0));
+
+        when(dataServiceMongoRepository.findPublishedPage(catalogId, after, null, 3))
+                .thenReturn(Flux.fromIterable(dataServices.subList(1, 4)));
+
+        String catalogUri = format("http://localhost/catalogs/%s", catalogId);
+
+        webTestClient
+                .get()
+                .uri(format("/catalogs/%s?pageSize=2&after=%s", catalogId, after.encode()))
+                .accept(MediaType.valueOf("text/turtle"))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .consumeWith(response -> {
+                    Model model = ModelFactory.createDefaultModel().read(new StringReader(new String(requireNonNull(response.getResponseBody()))), null, "TURTLE");
+                    Resource view = model.getResource(format("%s?pageSize=2&after=%s", catalogUri, after.encode()));
+
+                    assertTrue(model.contains(model.getResource(catalogUri), HYDRA.view, view));
+                    assertTrue(model.contains(view, RDF.type, HYDRA.PartialCollectionView));
+                    assertTrue(model.contains(view, HYDRA.first, model.getResource(format("%s?pageSize=2", catalogUri))));
+                    assertTrue(model.contains(view, HYDRA.previous, model.getResource(format("%s?pageSize=2&before=%s", catalogUri, PageCursor.of(dataServices.get(1)).encode()))));
+                    assertTrue(model.contains(view, HYDRA.next, model.getResource(format("%s?pageSize=2&after=%s", catalogUri, PageCursor.of(dataServices.get(2)).encode()))));
+                    assertEquals(2, model.listSubjectsWithProperty(RDF.type, DCAT.DataService).toList().size());
+                });
+    }
+
+    @Test
+    void mustRejectInvalidPageParameters() {
+        for (String query : List.of("pageSize=0", "pageSize=abc", "pageSize=10&after=***", "pageSize=10000")) {
+            webTestClient
+                    .get()
+                    .uri("/catalogs?" + query)
+                    .accept(MediaType.valueOf("text/turtle"))
+                    .exchange()
+                    .expectStatus()
+                    .isBadRequest();
+        }
+    }
+
+    @Test
+    void mustPageChangesWithTombstonesAndNextLink() {
+        String catalogId = "catalog-id-1";
+        LocalDateTime since = LocalDateTime.of(2021, 6, 1, 12, 0, 0);
+        List<DataService> dataServices = TestData.createDataServices(catalogId);
+        DataService first = dataServices.get(0);
+        first.setStatus(Status.PUBLISHED);
+        first.setModified(since.plusHours(1));
+        DataService second = dataServices.get(1);
+        second.setStatus(Status.PUBLISHED);
+        second.setModified(since.plusHours(2));
+        DataServiceTombstone deleted = new DataServiceTombstone("deleted-id", catalogId, since.plusHours(3));
+        ChangeCursor afterSecond = ChangeCursor.of(second);
+
+        when(dataServiceMongoRepository.findPublishedChanges(eq(new ChangeCursor(since, null)), any(), eq(2)))
+                .thenReturn(Flux.just(first, second));
+        when(dataServiceTombstoneMongoRepository.findChanges(eq(new ChangeCursor(since, null)), any(), eq(2)))
+                .thenReturn(Flux.just(deleted));
+        when(dataServiceMongoRepository.findPublishedChanges(eq(afterSecond), any(), eq(2))).thenReturn(Flux.just());
+        when(dataServiceTombstoneMongoRepository.findChanges(eq(afterSecond), any(), eq(2))).thenReturn(Flux.just(deleted));
+        String dataServicesUri = "http://localhost/data-services/";
+
+        String link = webTestClient
+                .get()
+                .uri("/catalogs/changes?since=2021-06-01T12:00:00&pageSize=2")
+                .accept(MediaType.valueOf("text/turtle"))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .consumeWith(response -> {
+                    Model model = ModelFactory.createDefaultModel().read(new StringReader(new String(requireNonNull(response.getResponseBody()))), null, "TURTLE");
+
+                    assertTrue(model.contains(model.getResource(dataServicesUri + first.getId()), RDF.type, DCAT.DataService));
+                    assertTrue(model.contains(model.getResource(dataServicesUri + second.getId()), RDF.type, DCAT.DataService));
+                    assertFalse(model.contains(model.getResource(dataServicesUri + deleted.getId()), RDF.type, AS.Tombstone));
+                })
+                .returnResult()
+                .getResponseHeaders()
+                .getFirst(HttpHeaders.LINK);
+
+        assertEquals(format("</catalogs/changes?since=%s&pageSize=2>; rel=\"next\"", afterSecond.encode()), link);
+
+        webTestClient
+                .get()
+                .uri(link.substring(1, link.indexOf('>')))
+                .accept(MediaType.valueOf("text/turtle"))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader()
+                .valueEquals(HttpHeaders.LINK, format("</catalogs/changes?since=%s&pageSize=2>; rel=\"next\"", ChangeCursor.of(deleted).encode()))
+                .expectBody()
+                .consumeWith(response -> {
+                    Model model = ModelFactory.createDefaultModel().read(new StringReader(new String(requireNonNull(response.getResponseBody()))), null, "TURTLE");
+
+                    assertTrue(model.contains(model.getResource(dataServicesUri + deleted.getId()), RDF.type, AS.Tombstone));
+                    assertTrue(model.contains(model.getResource(dataServicesUri + deleted.getId()), AS.formerType, DCAT.DataService));
+                    assertFalse(model.contains(model.getResource(dataServicesUri + second.getId()), RDF.type, DCAT.DataService));
+                });
+    }
+
+    @Test
+    void mustRejectInvalidChangesSince() {
+        for (String uri : List.of("/catalogs/changes", "/catalogs/changes?since=yesterday")) {
+            webTestClient
+                    .get()
+                    .uri(uri)
+                    .accept(MediaType.valueOf("text/turtle"))
+                    .exchange()
+                    .expectStatus()
+                    .isBadRequest();
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package no.fdk.dataservicecatalog.repository;
+
+import no.fdk.dataservicecatalog.model.CatalogVersion;
+import no.fdk.dataservicecatalog.model.DataService;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Tag("unit")
+public class DataServiceMongoRepositoryCustomImplTest {
+    private final MongoMappingContext mappingContext = new MongoMappingContext();
+    private final MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final DataServiceMongoRepositoryCustomImpl repository = new DataServiceMongoRepositoryCustomImpl(mongoTemplate);
+
+    @BeforeEach
+    void setUp() {
+        // as Spring Boot sets up the mapping, with dates as simple types
+        MongoCustomConversions conversions = new MongoCustomConversions(Collections.emptyList());
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+    }
+
+    @Test
+    void mustReadVersionOfPublishedDataServiceFromItsTimestamps() {
+        LocalDateTime created = LocalDateTime.of(2021, 3, 1, 12, 0);
+        LocalDateTime modified = LocalDateTime.of(2021, 4, 1, 12, 0);
+        // the document as the projection reads it
+        Document projected = new Document("_id", "data-service-id-1")
+                .append("created", Date.from(created.atZone(ZoneId.systemDefault()).toInstant()))
+                .append("modified", Date.from(modified.atZone(ZoneId.systemDefault()).toInstant()));
+
+        when(mongoTemplate.findOne(any(Query.class), eq(DataService.class)))
+                .thenReturn(Mono.fromSupplier(() -> converter.read(DataService.class, projected)));
+
+        assertEquals(new CatalogVersion(1, created, modified), repository.findPublishedVersionById("data-service-id-1").block());
+
+        QueryMapper queryMapper = new QueryMapper(converter);
+        MongoPersistentEntity<?> entity = mappingContext.getRequiredPersistentEntity(DataService.class);
+        verify(mongoTemplate).findOne(argThat((Query query) ->
+                queryMapper.getMappedObject(query.getQueryObject(), entity)
+                        .equals(new Document("_id", "data-service-id-1").append("status", "PUBLISHED"))
+                        && queryMapper.getMappedFields(query.getFieldsObject(), entity)
+                        .equals(new Document("created", 1).append("modified", 1))), eq(DataService.class));
+    }
+}
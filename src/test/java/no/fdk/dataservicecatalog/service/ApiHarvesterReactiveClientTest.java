@@ -0,0 +1,191 @@
+package no.fdk.dataservicecatalog.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+@Tag("unit")
+public class ApiHarvesterReactiveClientTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+    private final Scheduler parseScheduler = Schedulers.fromExecutorService(executor);
+    private final ApplicationProperties applicationProperties = new ApplicationProperties();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        parseScheduler.dispose();
+    }
+
+    @Test
+    void read_ShouldParseOnParseScheduler() throws Exception {
+        byte[] spec = IOUtils.toByteArray(new ClassPathResource("enhetsregisteret-openapi3.json").getInputStream());
+
+        ApiSpecification parsed = client(Duration.ofSeconds(30)).read(chunks(spec), null).block();
+
+        assertEquals("Åpne Data fra Enhetsregisteret - API Dokumentasjon", parsed.getInfo().getTitle());
+        assertEquals(1, executor.getTaskCount());
+        assertEquals(1, meterRegistry.get("apispec.parse").tag("outcome", "success").timer().count());
+        assertEquals(0, meterRegistry.get("apispec.download.bytes").gauge().value());
+    }
+
+    @Test
+    void read_ShouldHashOffTheReceivingThread() throws Exception {
+        byte[] spec = IOUtils.toByteArray(new ClassPathResource("fs-api-swagger.json").getInputStream());
+        ParsedSpecificationCache parsedSpecificationCache = spy(new ParsedSpecificationCache(applicationProperties));
+        AtomicReference<Thread> hashedOn = new AtomicReference<>();
+        doAnswer(invocation -> {
+            hashedOn.set(Thread.currentThread());
+            return invocation.callRealMethod();
+        }).when(parsedSpecificationCache).hash(any(), any());
+        ApiHarvesterReactiveClient client = new ApiHarvesterReactiveClient(parseScheduler, applicationProperties, meterRegistry,
+                mock(SpecificationCache.class), parsedSpecificationCache);
+
+        client.read(chunks(spec), null).block();
+
+        assertNotSame(Thread.currentThread(), hashedOn.get());
+        assertTrue(hashedOn.get().getName().startsWith("boundedElastic"));
+    }
+
+    @Test
+    void read_WhenSameDocumentFromAnotherUrl_ShouldParseOnce() throws Exception {
+        byte[] spec = IOUtils.toByteArray(new ClassPathResource("fs-api-swagger.json").getInputStream());
+        byte[] mirrored = ("\uFEFF\n" + new String(spec, StandardCharsets.UTF_8) + "\n\n").getBytes(StandardCharsets.UTF_8);
+        ApiHarvesterReactiveClient client = client(Duration.ofSeconds(30));
+
+        ApiSpecification first = client.read(chunks(spec), null).block();
+        ApiSpecification second = client.read(chunks(mirrored), null).block();
+
+        assertEquals(first, second);
+        assertNotSame(first, second);
+        // the duplicate is found before it is queued
+        assertEquals(1, executor.getTaskCount());
+        assertEquals(1, meterRegistry.get("apispec.parse").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("apispec.parse").tag("outcome", "deduplicated").timer().count());
+    }
+
+    @Test
+    void read_WhenQueueIsFull_ShouldRejectWithServiceUnavailable() {
+        occupyWorker();
+        executor.execute(this::awaitRelease);
+
+        var error = assertThrows(ResponseStatusException.class, () -> client(Duration.ofSeconds(30)).read(chunks("{}".getBytes()), null).block());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, error.getStatus());
+    }
+
+    @Test
+    void read_WhenQueuedPastTimeout_ShouldStillParse() {
+        occupyWorker();
+        CompletableFuture.runAsync(release::countDown, CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS));
+
+        var error = assertThrows(ResponseStatusException.class, () -> client(Duration.ofMillis(200)).read(chunks("{}".getBytes()), null).block());
+        assertEquals(HttpStatus.BAD_REQUEST, error.getStatus());
+        assertEquals(1, meterRegistry.get("apispec.parse").tag("outcome", "invalid").timer().count());
+    }
+
+    @Test
+    void read_WhenParsingPastTimeout_ShouldFailWithServiceUnavailableAndRecordOnce() throws Exception {
+        byte[] spec = IOUtils.toByteArray(new ClassPathResource("fs-api-swagger.json").getInputStream());
+        applicationProperties.getParseScheduler().setTimeout(Duration.ofMillis(1));
+        ParsedSpecificationCache parsedSpecificationCache = spy(new ParsedSpecificationCache(applicationProperties));
+        doAnswer(invocation -> {
+            awaitRelease();
+            return invocation.callRealMethod();
+        }).when(parsedSpecificationCache).put(any(), any());
+        ApiHarvesterReactiveClient client = new ApiHarvesterReactiveClient(parseScheduler, applicationProperties, meterRegistry,
+                mock(SpecificationCache.class), parsedSpecificationCache);
+
+        var error = assertThrows(ResponseStatusException.class, () -> client.read(chunks(spec), null).block());
+        // the parse carries on after the timeout, holding the buffer until it ends
+        assertEquals(spec.length, meterRegistry.get("apispec.download.bytes").gauge().value());
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, error.getStatus());
+        assertEquals(0, meterRegistry.get("apispec.download.bytes").gauge().value());
+        assertEquals(1, meterRegistry.get("apispec.parse").timers().size());
+        assertEquals(1, meterRegistry.get("apispec.parse").tag("outcome", "timeout").timer().count());
+    }
+
+    @Test
+    void read_WhenContentTypeHasCharset_ShouldDecodeWithIt() throws Exception {
+        String spec = IOUtils.toString(new ClassPathResource("enhetsregisteret-openapi3.json").getInputStream(), StandardCharsets.UTF_8);
+        MediaType contentType = new MediaType(MediaType.APPLICATION_JSON, StandardCharsets.ISO_8859_1);
+
+        ApiSpecification parsed = client(Duration.ofSeconds(30)).read(chunks(spec.getBytes(StandardCharsets.ISO_8859_1)), contentType).block();
+
+        assertEquals("Åpne Data fra Enhetsregisteret - API Dokumentasjon", parsed.getInfo().getTitle());
+    }
+
+    @Test
+    void read_WhenLargerThanMaxSize_ShouldFailWithBadRequestAndReleaseBudget() throws Exception {
+        String spec = IOUtils.toString(new ClassPathResource("fs-api-swagger.json").getInputStream(), StandardCharsets.UTF_8);
+        applicationProperties.getSpecificationDownload().setMaxSize(DataSize.ofBytes(1000));
+
+        var error = assertThrows(ResponseStatusException.class,
+                () -> client(Duration.ofSeconds(30)).read(chunks(spec.getBytes(StandardCharsets.UTF_8)), null).block());
+        assertEquals(HttpStatus.BAD_REQUEST, error.getStatus());
+        assertEquals(0, executor.getTaskCount());
+        assertEquals(0, meterRegistry.get("apispec.download.bytes").gauge().value());
+    }
+
+    private Flux<DataBuffer> chunks(byte[] bytes) {
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+        return Flux.range(0, (bytes.length + 511) / 512)
+                .map(chunk -> bufferFactory.wrap(ByteBuffer.wrap(bytes, chunk * 512, Math.min(512, bytes.length - chunk * 512))));
+    }
+
+    private ApiHarvesterReactiveClient client(Duration timeout) {
+        applicationProperties.getParseScheduler().setTimeout(timeout);
+        return new ApiHarvesterReactiveClient(parseScheduler, applicationProperties, meterRegistry, mock(SpecificationCache.class),
+                new ParsedSpecificationCache(applicationProperties));
+    }
+
+    private void occupyWorker() {
+        executor.execute(this::awaitRelease);
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
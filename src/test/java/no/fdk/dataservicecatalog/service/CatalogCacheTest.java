@@ -0,0 +1,153 @@
+package no.fdk.dataservicecatalog.service;
+
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import org.apache.jena.riot.Lang;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CatalogCacheTest {
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Test
+    void mustShareOneBuildBetweenConcurrentRequests() {
+        CatalogCache catalogCache = new CatalogCache(new ApplicationProperties());
+        CatalogCache.Key key = CatalogCache.Key.catalogs(Lang.TURTLE).withVersion("1");
+        AtomicInteger loads = new AtomicInteger();
+        Sinks.Many<DataBuffer> build = Sinks.many().unicast().onBackpressureBuffer();
+        Supplier<Flux<DataBuffer>> loader = () -> {
+            loads.incrementAndGet();
+            return build.asFlux();
+        };
+
+        CompletableFuture<String> first = read(catalogCache.get(key, loader, bufferFactory));
+        CompletableFuture<String> second = read(catalogCache.get(key, loader, bufferFactory));
+
+        build.tryEmitNext(bufferFactory.wrap("<a> <b> ".getBytes(StandardCharsets.UTF_8)));
+        build.tryEmitNext(bufferFactory.wrap("<c> .".getBytes(StandardCharsets.UTF_8)));
+        build.tryEmitComplete();
+
+        assertEquals("<a> <b> <c> .", first.join());
+        assertEquals("<a> <b> <c> .", second.join());
+        assertEquals("<a> <b> <c> .", read(catalogCache.get(key, loader, bufferFactory)).join());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void mustNotJoinBuildStartedBeforeInvalidation() {
+        CatalogCache catalogCache = new CatalogCache(new ApplicationProperties());
+        CatalogCache.Key key = CatalogCache.Key.catalog("catalog-id-1", Lang.TURTLE).withVersion("1");
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<Flux<DataBuffer>> loader = () -> {
+            loads.incrementAndGet();
+            return Flux.never();
+        };
+
+        catalogCache.get(key, loader, bufferFactory).subscribe();
+        catalogCache.invalidate("catalog-id-1", "data-service-id-1");
+        catalogCache.get(key, loader, bufferFactory).subscribe();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void mustStreamResponseLargerThanAnEntryPerRequestWithoutCachingIt() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getCatalogCache().setMaxEntrySize(DataSize.ofBytes(8));
+        CatalogCache catalogCache = new CatalogCache(applicationProperties);
+        CatalogCache.Key key = CatalogCache.Key.catalogs(Lang.TURTLE).withVersion("1");
+        AtomicInteger loads = new AtomicInteger();
+        Sinks.Many<DataBuffer> build = Sinks.many().unicast().onBackpressureBuffer();
+        Supplier<Flux<DataBuffer>> loader = () -> {
+            loads.incrementAndGet();
+            return loads.get() == 1
+                    ? build.asFlux()
+                    : Flux.just(bufferFactory.wrap("<a> <b> <c> .".getBytes(StandardCharsets.UTF_8)));
+        };
+
+        CompletableFuture<String> first = read(catalogCache.get(key, loader, bufferFactory));
+        CompletableFuture<String> second = read(catalogCache.get(key, loader, bufferFactory));
+
+        build.tryEmitNext(bufferFactory.wrap("<a> <b> ".getBytes(StandardCharsets.UTF_8)));
+        build.tryEmitNext(bufferFactory.wrap("<c> .".getBytes(StandardCharsets.UTF_8)));
+
+        // the shared build gives up at the entry size and each waiting request builds its own
+        assertEquals("<a> <b> <c> .", first.join());
+        assertEquals("<a> <b> <c> .", second.join());
+        assertEquals(3, loads.get());
+        assertEquals("<a> <b> <c> .", read(catalogCache.get(key, loader, bufferFactory)).join());
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void mustSendRequestJoiningLateTheWholeResponse() {
+        CatalogCache catalogCache = new CatalogCache(new ApplicationProperties());
+        CatalogCache.Key key = CatalogCache.Key.catalogs(Lang.TURTLE).withVersion("1");
+        AtomicInteger loads = new AtomicInteger();
+        Sinks.Many<DataBuffer> build = Sinks.many().unicast().onBackpressureBuffer();
+        Supplier<Flux<DataBuffer>> loader = () -> {
+            loads.incrementAndGet();
+            return build.asFlux();
+        };
+
+        CompletableFuture<String> first = read(catalogCache.get(key, loader, bufferFactory));
+        build.tryEmitNext(bufferFactory.wrap("<a> <b> ".getBytes(StandardCharsets.UTF_8)));
+        CompletableFuture<String> second = read(catalogCache.get(key, loader, bufferFactory));
+        build.tryEmitNext(bufferFactory.wrap("<c> .".getBytes(StandardCharsets.UTF_8)));
+        build.tryEmitComplete();
+
+        assertEquals("<a> <b> <c> .", first.join());
+        assertEquals("<a> <b> <c> .", second.join());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void mustReleaseBuffersOfSharedBuild() {
+        CatalogCache catalogCache = new CatalogCache(new ApplicationProperties());
+        CatalogCache.Key key = CatalogCache.Key.catalogs(Lang.TURTLE).withVersion("1");
+        NettyDataBufferFactory nettyBufferFactory = new NettyDataBufferFactory(new UnpooledByteBufAllocator(false));
+        Sinks.Many<DataBuffer> build = Sinks.many().unicast().onBackpressureBuffer();
+        List<NettyDataBuffer> written = new ArrayList<>();
+
+        Disposable left = catalogCache.get(key, build::asFlux, nettyBufferFactory).subscribe();
+        written.add(write(build, nettyBufferFactory, "<a> <b> "));
+        left.dispose();
+        written.add(write(build, nettyBufferFactory, "<c> ."));
+        build.tryEmitComplete();
+
+        assertTrue(written.stream().allMatch(buffer -> buffer.getNativeBuffer().refCnt() == 0));
+        // the build carried on without its request and was cached
+        assertEquals("<a> <b> <c> .", read(catalogCache.get(key, Flux::never, nettyBufferFactory)).join());
+    }
+
+    private NettyDataBuffer write(Sinks.Many<DataBuffer> build, NettyDataBufferFactory nettyBufferFactory, String chunk) {
+        NettyDataBuffer buffer = nettyBufferFactory.wrap(Unpooled.copiedBuffer(chunk, StandardCharsets.UTF_8));
+        build.tryEmitNext(buffer);
+        return buffer;
+    }
+
+    private CompletableFuture<String> read(Flux<DataBuffer> buffers) {
+        return DataBufferUtils.join(buffers)
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .toFuture();
+    }
+}
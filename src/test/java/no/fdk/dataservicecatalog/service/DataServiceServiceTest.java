@@ -1,26 +1,59 @@
 package no.fdk.dataservicecatalog.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecificationSource;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Info;
+import no.fdk.dataservicecatalog.model.BulkResult;
+import no.fdk.dataservicecatalog.model.CatalogRegistration;
+import no.fdk.dataservicecatalog.model.CreatedCursor;
 import no.fdk.dataservicecatalog.model.DataService;
 import no.fdk.dataservicecatalog.model.Status;
+import no.fdk.dataservicecatalog.repository.CatalogRegistrationMongoRepository;
 import no.fdk.dataservicecatalog.repository.DataServiceMongoRepository;
+import no.fdk.dataservicecatalog.repository.DataServiceTombstoneMongoRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 import reactor.rabbitmq.OutboundMessage;
 import reactor.rabbitmq.OutboundMessageResult;
 import reactor.rabbitmq.Sender;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalUnit;
-
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
@@ -30,12 +63,34 @@ public class DataServiceServiceTest {
     @Autowired
     DataServiceService dataServiceService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @MockBean
     DataServiceMongoRepository dataServiceMongoRepository;
 
+    @MockBean
+    DataServiceTombstoneMongoRepository dataServiceTombstoneMongoRepository;
+
+    @MockBean
+    CatalogRegistrationMongoRepository catalogRegistrationMongoRepository;
+
     @MockBean
     Sender sender;
 
+    @MockBean
+    ApiHarvesterReactiveClient apiHarvesterReactiveClient;
+
+    @MockBean
+    CatalogCache catalogCache;
+
+    @BeforeEach
+    void stubRepositories() {
+        when(dataServiceTombstoneMongoRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(dataServiceTombstoneMongoRepository.deleteById(any(String.class))).thenReturn(Mono.empty());
+        when(dataServiceMongoRepository.initialiseDocumentVersion(any(), any())).thenReturn(Mono.empty());
+    }
+
     @Test
     void mustNotTriggerHarvestOnCreateWhenStatusIsDraft() {
         final DataService dataService = DataService.builder()
@@ -45,8 +100,6 @@ public class DataServiceServiceTest {
                 .build();
 
         when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
-        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
-                .thenReturn(Flux.just(dataService, DataService.builder().build()));
         when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
                 new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
 
@@ -69,18 +122,34 @@ public class DataServiceServiceTest {
         when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
         when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), dataService.getOrganizationId()))
                 .thenReturn(Mono.just(dataService));
-        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
-                .thenReturn(Flux.just(dataService, DataService.builder().build()));
         when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
                 new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
 
-        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService).subscribe();
+        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).subscribe();
 
         assertTrue(LocalDateTime.now().minus(1, ChronoUnit.MINUTES).isBefore(dataService.getModified()));
 
         verify(sender, times(0)).sendWithPublishConfirms(any());
     }
 
+    @Test
+    void mustUpdateDataServiceSavedBeforeItWasVersioned() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.DRAFT)
+                .build();
+
+        when(dataServiceMongoRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), CATALOG_ID))
+                .thenReturn(Mono.just(DataService.builder().id(dataService.getId()).organizationId(CATALOG_ID).status(Status.DRAFT).build()));
+
+        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).block();
+
+        verify(dataServiceMongoRepository).initialiseDocumentVersion(dataService.getId(), CATALOG_ID);
+        verify(dataServiceMongoRepository).save(argThat(saved -> Long.valueOf(0L).equals(saved.getDocumentVersion())));
+    }
+
     @Test
     void mustTriggerHarvestOnCreateAndNoNewDataSourceWhenHavingMultipleDataservices() {
         final DataService dataService = DataService.builder()
@@ -90,8 +159,8 @@ public class DataServiceServiceTest {
                 .build();
 
         when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
-        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
-                .thenReturn(Flux.just(dataService, DataService.builder().build()));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, true)));
         when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
                 new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
 
@@ -110,13 +179,13 @@ public class DataServiceServiceTest {
 
         when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
         when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), dataService.getOrganizationId()))
-                .thenReturn(Mono.just(dataService));
-        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
-                .thenReturn(Flux.just(dataService, DataService.builder().build()));
+                .thenReturn(Mono.just(DataService.builder().id(dataService.getId()).organizationId(CATALOG_ID).status(Status.DRAFT).build()));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, true)));
         when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
                 new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
 
-        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService).subscribe();
+        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).subscribe();
 
         verify(sender, times(1)).sendWithPublishConfirms(any());
     }
@@ -130,8 +199,7 @@ public class DataServiceServiceTest {
                 .build();
 
         when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
-        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
-                .thenReturn(Flux.just(dataService));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID)).thenReturn(Mono.empty());
         when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
                 new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
 
@@ -150,15 +218,623 @@ public class DataServiceServiceTest {
 
         when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
         when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), dataService.getOrganizationId()))
-                .thenReturn(Mono.just(dataService));
-        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
-                .thenReturn(Flux.just(dataService));
+                .thenReturn(Mono.just(DataService.builder().id(dataService.getId()).organizationId(CATALOG_ID).status(Status.DRAFT).build()));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID)).thenReturn(Mono.empty());
         when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
                 new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
 
-        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService).subscribe();
+        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).subscribe();
 
         verify(sender, times(2)).sendWithPublishConfirms(any());
     }
 
+    @Test
+    void mustNotRegisterPublicationWhenPublishedDataServiceIsSavedAgain() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.PUBLISHED)
+                .build();
+
+        when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), dataService.getOrganizationId()))
+                .thenReturn(Mono.just(DataService.builder().id(dataService.getId()).organizationId(CATALOG_ID).status(Status.PUBLISHED).build()));
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
+
+        dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).block();
+
+        verify(sender, times(1)).sendWithPublishConfirms(any());
+        verify(catalogRegistrationMongoRepository, never()).registerPublication(any());
+    }
+
+    @Test
+    void mustReleaseDataSourceWhenItIsNotConfirmed() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.PUBLISHED)
+                .build();
+
+        when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID)).thenReturn(Mono.empty());
+        when(catalogRegistrationMongoRepository.setDataSourceCreated(CATALOG_ID, false))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, true)));
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), false)));
+
+        dataServiceService.create(dataService, CATALOG_ID).block();
+
+        verify(catalogRegistrationMongoRepository).setDataSourceCreated(CATALOG_ID, false);
+    }
+
+    @Test
+    void mustTriggerNewDataSourceWhenEarlierOneWasReleased() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.PUBLISHED)
+                .build();
+
+        when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, false)));
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
+
+        dataServiceService.create(dataService, CATALOG_ID).block();
+
+        verify(sender, times(2)).sendWithPublishConfirms(any());
+        verify(catalogRegistrationMongoRepository, never()).setDataSourceCreated(any(), anyBoolean());
+    }
+
+    @Test
+    void mustInvalidateCachedCatalogOnCreateAndDelete() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.DRAFT)
+                .build();
+
+        when(dataServiceMongoRepository.save(dataService)).thenReturn(Mono.just(dataService));
+        when(dataServiceMongoRepository.findAndDelete(dataService.getId(), CATALOG_ID)).thenReturn(Mono.just(dataService));
+
+        dataServiceService.create(dataService, CATALOG_ID).block();
+        dataServiceService.deleteById(dataService.getId(), CATALOG_ID).block();
+
+        verify(catalogCache, times(2)).invalidate(CATALOG_ID, dataService.getId());
+    }
+
+    @Test
+    void mustQueryOnceWhenListingAndRecordResultCount() {
+        AtomicInteger subscriptions = new AtomicInteger();
+        when(dataServiceMongoRepository.findAllByOrganizationIdOrderByCreatedDesc(CATALOG_ID))
+                .thenReturn(Flux.defer(() -> {
+                    subscriptions.incrementAndGet();
+                    return Flux.just(DataService.builder().id("1").build(), DataService.builder().id("2").build());
+                }));
+
+        assertEquals(2, dataServiceService.getAllDataServices(CATALOG_ID).collectList().block().size());
+
+        assertEquals(1, subscriptions.get());
+        DistributionSummary results = meterRegistry.find("dataservice.query.results").tag("query", "all-by-catalog").summary();
+        assertNotNull(results);
+        assertEquals(2, results.totalAmount());
+    }
+
+    @Test
+    void mustRenderRdfFragmentBeforeSaving() {
+        final DataService dataService = DataService.builder()
+                .organizationId(CATALOG_ID)
+                .title(Map.of("nb", "Tittel"))
+                .status(Status.DRAFT)
+                .build();
+
+        when(dataServiceMongoRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+        DataService saved = dataServiceService.create(dataService, CATALOG_ID).block();
+
+        assertNotNull(saved);
+        assertNotNull(saved.getId());
+        assertNotNull(saved.getRdfFragmentFingerprint());
+        assertTrue(saved.getRdfFragment().contains(String.format("/data-services/%s>", saved.getId())));
+        assertTrue(saved.getRdfFragment().contains("\"Tittel\"@nb"));
+    }
+
+    @Test
+    void mustLeaveTombstoneOnlyWhenDataServiceWasDeleted() {
+        when(dataServiceMongoRepository.findAndDelete("DELETED", CATALOG_ID)).thenReturn(Mono.just(DataService.builder()
+                .id("DELETED").organizationId(CATALOG_ID).status(Status.PUBLISHED).build()));
+        when(dataServiceMongoRepository.findAndDelete("MISSING", CATALOG_ID)).thenReturn(Mono.empty());
+
+        assertTrue(dataServiceService.deleteById("DELETED", CATALOG_ID).block());
+        assertFalse(dataServiceService.deleteById("MISSING", CATALOG_ID).block());
+
+        verify(dataServiceTombstoneMongoRepository, times(1)).save(argThat(tombstone ->
+                "DELETED".equals(tombstone.getId()) && CATALOG_ID.equals(tombstone.getOrganizationId()) && tombstone.getDeleted() != null));
+    }
+
+    @Test
+    void mustNotLeaveTombstoneWhenDraftIsDeleted() {
+        when(dataServiceMongoRepository.findAndDelete("DRAFT", CATALOG_ID)).thenReturn(Mono.just(DataService.builder()
+                .id("DRAFT").organizationId(CATALOG_ID).status(Status.DRAFT).build()));
+
+        assertTrue(dataServiceService.deleteById("DRAFT", CATALOG_ID).block());
+
+        verify(dataServiceTombstoneMongoRepository, never()).save(any());
+        verify(catalogCache).invalidate(CATALOG_ID, "DRAFT");
+    }
+
+    @Test
+    void mustLeaveTombstoneOnlyWhenPublishedDataServiceIsUnpublished() throws Exception {
+        final DataService published = DataService.builder()
+                .id("PUBLISHED")
+                .organizationId(CATALOG_ID)
+                .status(Status.PUBLISHED)
+                .documentVersion(1L)
+                .build();
+        final DataService draft = DataService.builder()
+                .id("DRAFT")
+                .organizationId(CATALOG_ID)
+                .status(Status.DRAFT)
+                .documentVersion(1L)
+                .build();
+        ObjectNode mergePatch = (ObjectNode) new ObjectMapper().readTree("{\"status\": \"DRAFT\"}");
+
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(published.getId(), CATALOG_ID)).thenReturn(Mono.just(published));
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(draft.getId(), CATALOG_ID)).thenReturn(Mono.just(draft));
+        when(dataServiceMongoRepository.updateFields(any(), eq(CATALOG_ID), any(), any())).thenAnswer(invocation -> Mono.just(DataService.builder()
+                .id(invocation.getArgument(0)).organizationId(CATALOG_ID).status(Status.DRAFT).documentVersion(2L).build()));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, true)));
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
+
+        dataServiceService.patch(published.getId(), CATALOG_ID, mergePatch, null).block();
+        dataServiceService.patch(draft.getId(), CATALOG_ID, mergePatch, null).block();
+
+        verify(dataServiceMongoRepository).updateFields(eq(published.getId()), eq(CATALOG_ID), eq(1L), any());
+        verify(dataServiceTombstoneMongoRepository, times(1)).save(any());
+        verify(dataServiceTombstoneMongoRepository).save(argThat(tombstone -> published.getId().equals(tombstone.getId())));
+    }
+
+    @Test
+    void mustPatchOnlyMergedFieldsInOneUpdate() throws Exception {
+        final DataService patched = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .title(Map.of("nb", "Tittel", "en", "Title"))
+                .status(Status.PUBLISHED)
+                .documentVersion(4L)
+                .build();
+        ObjectNode mergePatch = (ObjectNode) new ObjectMapper().readTree(
+                "{\"title\": {\"en\": \"Title\"}, \"description\": null, \"status\": \"PUBLISHED\"}");
+
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(patched.getId(), CATALOG_ID)).thenReturn(Mono.just(DataService.builder()
+                .id(patched.getId()).organizationId(CATALOG_ID).status(Status.PUBLISHED).documentVersion(3L).build()));
+        when(dataServiceMongoRepository.updateFields(eq(patched.getId()), eq(CATALOG_ID), any(), any())).thenReturn(Mono.just(patched));
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, true)));
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
+
+        assertEquals(4L, dataServiceService.patch(patched.getId(), CATALOG_ID, mergePatch, Set.of(3L)).block().getDocumentVersion());
+
+        verify(dataServiceMongoRepository).updateFields(eq(patched.getId()), eq(CATALOG_ID), eq(3L), argThat((Update update) -> {
+            var set = update.getUpdateObject().get("$set", Document.class);
+            var unset = update.getUpdateObject().get("$unset", Document.class);
+            return set.keySet().equals(Set.of("title.en", "status", "modified"))
+                    && unset.containsKey("description") && unset.containsKey("rdfFragment")
+                    && update.getUpdateObject().get("$inc", Document.class).containsKey("documentVersion");
+        }));
+        // the refreshed fragment is only written to the patched version
+        verify(dataServiceMongoRepository).updateFields(eq(patched.getId()), eq(CATALOG_ID), eq(4L),
+                argThat((Update update) -> update.getUpdateObject().get("$set", Document.class).containsKey("rdfFragment")));
+        verify(dataServiceMongoRepository, never()).save(any());
+        verify(catalogCache).invalidate(CATALOG_ID, patched.getId());
+        verify(sender, times(1)).sendWithPublishConfirms(any());
+    }
+
+    @Test
+    void mustRejectPatchOfStatusToAnythingButDraftOrPublished() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (String status : List.of("null", "\"DELETED\"", "{\"name\": \"PUBLISHED\"}")) {
+            ObjectNode mergePatch = (ObjectNode) objectMapper.readTree("{\"status\": " + status + "}");
+
+            ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                    () -> dataServiceService.patch("MY_FIRST_DATASERVICE", CATALOG_ID, mergePatch, null).block());
+            assertEquals(HttpStatus.BAD_REQUEST, error.getStatus());
+        }
+        verify(dataServiceMongoRepository, never()).findByIdAndOrganizationId(any(), any());
+        verify(dataServiceMongoRepository, never()).updateFields(any(), any(), any(), any());
+    }
+
+    @Test
+    void mustRejectPatchWhenVersionDoesNotMatch() throws Exception {
+        final DataService existing = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .documentVersion(5L)
+                .build();
+        ObjectNode mergePatch = (ObjectNode) new ObjectMapper().readTree("{\"serviceType\": \"type\"}");
+
+        when(dataServiceMongoRepository.updateFields(eq(existing.getId()), eq(CATALOG_ID), eq(3L), any())).thenReturn(Mono.empty());
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(existing.getId(), CATALOG_ID)).thenReturn(Mono.just(existing));
+        when(dataServiceMongoRepository.findByIdAndOrganizationId("MISSING", CATALOG_ID)).thenReturn(Mono.empty());
+        when(dataServiceMongoRepository.updateFields(eq("MISSING"), eq(CATALOG_ID), eq(3L), any())).thenReturn(Mono.empty());
+
+        ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                () -> dataServiceService.patch(existing.getId(), CATALOG_ID, mergePatch, Set.of(3L)).block());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, error.getStatus());
+        assertNull(dataServiceService.patch("MISSING", CATALOG_ID, mergePatch, Set.of(3L)).block());
+        verify(catalogCache, never()).invalidate(any(), any());
+    }
+
+    @Test
+    void mustPatchAtAnyOfTheExpectedVersions() throws Exception {
+        final DataService existing = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.DRAFT)
+                .documentVersion(5L)
+                .build();
+        ObjectNode mergePatch = (ObjectNode) new ObjectMapper().readTree("{\"serviceType\": \"type\"}");
+
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(existing.getId(), CATALOG_ID)).thenReturn(Mono.just(existing));
+        when(dataServiceMongoRepository.updateFields(eq(existing.getId()), eq(CATALOG_ID), any(), any())).thenReturn(Mono.just(existing));
+
+        dataServiceService.patch(existing.getId(), CATALOG_ID, mergePatch, Set.of(2L, 5L)).block();
+
+        verify(dataServiceMongoRepository).updateFields(eq(existing.getId()), eq(CATALOG_ID), eq(5L),
+                argThat((Update update) -> update.getUpdateObject().get("$set", Document.class).containsKey("serviceType")));
+    }
+
+    @Test
+    void mustRetryConcurrentUpdateOnlyWithoutPrecondition() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.DRAFT)
+                .documentVersion(3L)
+                .build();
+        AtomicInteger saves = new AtomicInteger();
+
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), CATALOG_ID)).thenReturn(Mono.just(dataService));
+        when(dataServiceMongoRepository.save(any())).thenReturn(Mono.defer(() -> saves.incrementAndGet() % 2 == 1
+                ? Mono.error(new OptimisticLockingFailureException("modified concurrently"))
+                : Mono.just(dataService)));
+
+        assertEquals(dataService, dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).block());
+        assertEquals(2, saves.get());
+
+        ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                () -> dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, Set.of(3L)).block());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, error.getStatus());
+        assertEquals(3, saves.get());
+    }
+
+    @Test
+    void mustGiveUpConcurrentUpdateWithConflictAfterRetries() {
+        final DataService dataService = DataService.builder()
+                .id("MY_FIRST_DATASERVICE")
+                .organizationId(CATALOG_ID)
+                .status(Status.DRAFT)
+                .documentVersion(3L)
+                .build();
+        AtomicInteger saves = new AtomicInteger();
+
+        when(dataServiceMongoRepository.findByIdAndOrganizationId(dataService.getId(), CATALOG_ID)).thenReturn(Mono.just(dataService));
+        when(dataServiceMongoRepository.save(any())).thenReturn(Mono.defer(() -> {
+            saves.incrementAndGet();
+            return Mono.error(new OptimisticLockingFailureException("modified concurrently"));
+        }));
+
+        ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                () -> dataServiceService.update(dataService.getId(), CATALOG_ID, dataService, null).block());
+        assertEquals(HttpStatus.CONFLICT, error.getStatus());
+        // the first attempt and three retries
+        assertEquals(4, saves.get());
+        verify(catalogCache, never()).invalidate(any(), any());
+    }
+
+    @Test
+    void mustRejectMergePatchOfServerManagedOrMistypedFields() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+
+        for (String body : new String[]{"{\"organizationId\": \"other\"}", "{\"title\": \"not a map\"}", "{\"title\": {\"$where\": \"x\"}}"}) {
+            ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                    () -> dataServiceService.patch("MY_FIRST_DATASERVICE", CATALOG_ID, (ObjectNode) mapper.readTree(body), null).block());
+            assertEquals(HttpStatus.BAD_REQUEST, error.getStatus());
+        }
+        verify(dataServiceMongoRepository, never()).updateFields(any(), any(), any(), any());
+    }
+
+    @Test
+    void mustListPageOfProjectedFieldsAfterCursor() {
+        final DataService last = DataService.builder()
+                .id("60c8a5a1e4b0d2b9c8a1f001")
+                .created(LocalDateTime.of(2021, 6, 15, 12, 0))
+                .build();
+        CreatedCursor after = CreatedCursor.decode(CreatedCursor.of(last).encode());
+        Set<String> fields = Set.of("id", "title", "status", "modified");
+
+        when(dataServiceMongoRepository.findPage(CATALOG_ID, after, 21, fields))
+                .thenReturn(Flux.just(DataService.builder().id("1").build()));
+
+        assertEquals(CreatedCursor.of(last), after);
+        assertEquals(1, dataServiceService.getDataServices(CATALOG_ID, after, 21, fields).count().block());
+        assertNull(CreatedCursor.decode(new CreatedCursor(null, "1").encode()).getCreated());
+
+        ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                () -> dataServiceService.getDataServices(CATALOG_ID, null, 21, Set.of("title", "rdfFragment")).blockLast());
+        assertEquals(HttpStatus.BAD_REQUEST, error.getStatus());
+        verify(dataServiceMongoRepository, times(1)).findPage(any(), any(), anyInt(), any());
+    }
+
+    @Test
+    void mustBulkWriteLinesAndTriggerOneHarvest() {
+        Flux<String> lines = Flux.just(
+                "{\"title\": {\"nb\": \"Ny\"}, \"status\": \"PUBLISHED\"}",
+                "",
+                "{\"id\": \"EXISTING\", \"title\": {\"nb\": \"Endret\"}, \"status\": \"PUBLISHED\"}",
+                "{\"title\": \"not a map\"}",
+                "{\"id\": \"TAKEN\"}");
+
+        when(dataServiceMongoRepository.findAllByOrganizationIdAndIdIn(eq(CATALOG_ID), any())).thenReturn(Flux.just(
+                DataService.builder().id("EXISTING").status(Status.PUBLISHED).build()));
+        when(dataServiceMongoRepository.bulkUpsert(eq(CATALOG_ID), any())).thenAnswer(invocation -> {
+            List<DataService> dataServices = invocation.getArgument(1);
+            return Mono.just(List.of(
+                    BulkResult.created(dataServices.get(0).getId()),
+                    BulkResult.updated(dataServices.get(1).getId()),
+                    BulkResult.failed(dataServices.get(2).getId(), "a data service with this id already exists")));
+        });
+        when(catalogRegistrationMongoRepository.registerPublication(CATALOG_ID))
+                .thenReturn(Mono.just(new CatalogRegistration(CATALOG_ID, true)));
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
+
+        List<BulkResult> results = dataServiceService.bulkUpsert(lines, CATALOG_ID).collectList().block();
+
+        assertEquals(4, results.size());
+        assertEquals(BulkResult.Outcome.FAILED, results.get(0).getOutcome());
+        assertEquals(4, results.get(0).getLine());
+        assertEquals(BulkResult.Outcome.CREATED, results.get(1).getOutcome());
+        assertEquals(1, results.get(1).getLine());
+        assertNotNull(results.get(1).getId());
+        assertEquals(new BulkResult(3, "EXISTING", BulkResult.Outcome.UPDATED, null), results.get(2));
+        assertEquals(new BulkResult(5, "TAKEN", BulkResult.Outcome.FAILED, "a data service with this id already exists"), results.get(3));
+
+        verify(dataServiceMongoRepository).bulkUpsert(eq(CATALOG_ID), argThat(dataServices ->
+                dataServices.get(0).getCreated() != null && dataServices.get(0).getRdfFragment() != null
+                        && dataServices.get(1).getCreated() == null && dataServices.get(1).getModified() != null
+                        && dataServices.get(2).getStatus() == Status.DRAFT
+                        && dataServices.stream().allMatch(dataService -> CATALOG_ID.equals(dataService.getOrganizationId()))));
+        verify(catalogCache, times(1)).invalidate(CATALOG_ID, null);
+        verify(sender, times(1)).sendWithPublishConfirms(any());
+        verify(dataServiceMongoRepository, never()).save(any());
+    }
+
+    @Test
+    void mustImportListOfSpecificationsInOneBatchedWrite() {
+        List<ApiSpecificationSource> sources = List.of(
+                source("https://a.example.org/first.json"),
+                source("https://b.example.org/broken.json"),
+                source("https://a.example.org/second.json"));
+        ApiSpecification apiSpecification = new ApiSpecification();
+        Info info = new Info();
+        info.setTitle("API");
+        apiSpecification.setInfo(info);
+
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenAnswer(invocation -> {
+            ApiSpecificationSource source = invocation.getArgument(0);
+            return source.getApiSpecUrl().startsWith("https://a.")
+                    ? Mono.just(apiSpecification)
+                    : Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "not a specification"));
+        });
+        when(dataServiceMongoRepository.bulkUpsert(eq(CATALOG_ID), any())).thenAnswer(invocation -> {
+            List<DataService> dataServices = invocation.getArgument(1);
+            return Mono.just(dataServices.stream().map(dataService -> BulkResult.created(dataService.getId())).collect(Collectors.toList()));
+        });
+
+        List<BulkResult> results = dataServiceService.bulkImport(sources, CATALOG_ID).collectList().block();
+
+        assertEquals(3, results.size());
+        assertEquals(new BulkResult(2, null, BulkResult.Outcome.FAILED, "not a specification"),
+                results.stream().filter(result -> result.getLine() == 2).findFirst().orElseThrow());
+        assertEquals(2, results.stream().filter(result -> result.getOutcome() == BulkResult.Outcome.CREATED && result.getId() != null).count());
+        verify(dataServiceMongoRepository, times(1)).bulkUpsert(eq(CATALOG_ID), argThat(dataServices -> dataServices.size() == 2
+                && dataServices.stream().allMatch(dataService -> dataService.isImported() && dataService.getCreated() != null
+                && dataService.getStatus() == Status.DRAFT && dataService.getRdfFragment() != null)));
+        verify(catalogCache, times(1)).invalidate(CATALOG_ID, null);
+    }
+
+    @Test
+    void mustLimitImportsInFlightAcrossHosts() {
+        List<ApiSpecificationSource> sources = IntStream.range(0, 24)
+                .mapToObj(index -> source(String.format("https://host%d.example.org/spec.json", index % 12)))
+                .collect(Collectors.toList());
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenAnswer(invocation -> Mono.defer(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return Mono.delay(Duration.ofMillis(20));
+                })
+                .then(Mono.defer(() -> {
+                    inFlight.decrementAndGet();
+                    return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "not a specification"));
+                })));
+
+        List<BulkResult> results = dataServiceService.bulkImport(sources, CATALOG_ID).collectList().block();
+
+        assertEquals(24, results.size());
+        assertTrue(maxInFlight.get() <= 8);
+    }
+
+    @Test
+    void mustRefreshImportedDataServicesWithOneFetchPerSpecification() {
+        String url = "https://a.example.org/spec.json";
+        String documentation = "https://a.example.org/docs";
+        DataService unchanged = imported("UNCHANGED", url, "API");
+        DataService changed = imported("CHANGED", url, "Old title");
+
+        when(dataServiceMongoRepository.findImportedEndpointDescriptions()).thenReturn(Flux.just(url, documentation));
+        when(dataServiceMongoRepository.findAllImportedFrom(url)).thenReturn(Flux.just(unchanged, changed));
+        when(dataServiceMongoRepository.findAllImportedFrom(documentation)).thenReturn(Flux.empty());
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenReturn(Mono.just(apiSpecification("API")));
+        when(dataServiceMongoRepository.updateFields(any(), any(), any(), any())).thenAnswer(invocation -> {
+            DataService updated = imported(invocation.getArgument(0), url, "API");
+            updated.setDocumentVersion(4L);
+            return Mono.just(updated);
+        });
+
+        List<DataService> refreshed = dataServiceService.refreshImported().collectList().block();
+
+        assertEquals(1, refreshed.size());
+        assertEquals("CHANGED", refreshed.get(0).getId());
+        verify(apiHarvesterReactiveClient, times(1)).convertApiSpecification(any());
+        verify(apiHarvesterReactiveClient).convertApiSpecification(argThat(source -> url.equals(source.getApiSpecUrl())));
+        verify(dataServiceMongoRepository, never()).updateFields(eq("UNCHANGED"), any(), any(), any());
+        verify(dataServiceMongoRepository).updateFields(eq("CHANGED"), eq(CATALOG_ID), eq(3L), argThat(update -> {
+            Document set = (Document) update.getUpdateObject().get("$set");
+            return "API".equals(set.get("title.nb")) && unchanged.getImportedFields().get("title").equals(set.get("importedFields.title"))
+                    && set.keySet().equals(Set.of("title.nb", "importedFields.title", "modified"));
+        }));
+        verify(catalogCache, times(1)).invalidate(CATALOG_ID, "CHANGED");
+    }
+
+    @Test
+    void mustKeepEditedFieldsWhileSpecificationIsUnchanged() {
+        String url = "https://a.example.org/spec.json";
+        DataService edited = imported("EDITED", url, "API");
+        edited.setTitle(Map.of(DataService.DEFAULT_LANGUAGE, "Edited title"));
+
+        when(dataServiceMongoRepository.findImportedEndpointDescriptions()).thenReturn(Flux.just(url));
+        when(dataServiceMongoRepository.findAllImportedFrom(url)).thenReturn(Flux.just(edited));
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenReturn(Mono.just(apiSpecification("API")));
+
+        List<DataService> refreshed = dataServiceService.refreshImported().collectList().block();
+
+        assertTrue(refreshed.isEmpty());
+        verify(dataServiceMongoRepository, never()).updateFields(any(), any(), any(), any());
+    }
+
+    @Test
+    void mustKeepEditedFieldsThatDidNotChangeUpstream() {
+        String url = "https://a.example.org/spec.json";
+        DataService edited = imported("EDITED", url, "API");
+        edited.setTitle(Map.of(DataService.DEFAULT_LANGUAGE, "Edited title"));
+        ApiSpecification apiSpecification = apiSpecification("API");
+        apiSpecification.getInfo().setVersion("2.0");
+
+        when(dataServiceMongoRepository.findImportedEndpointDescriptions()).thenReturn(Flux.just(url));
+        when(dataServiceMongoRepository.findAllImportedFrom(url)).thenReturn(Flux.just(edited));
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenReturn(Mono.just(apiSpecification));
+        when(dataServiceMongoRepository.updateFields(any(), any(), any(), any())).thenReturn(Mono.just(edited));
+
+        dataServiceService.refreshImported().collectList().block();
+
+        verify(dataServiceMongoRepository).updateFields(eq("EDITED"), eq(CATALOG_ID), eq(3L), argThat(update -> {
+            Document set = (Document) update.getUpdateObject().get("$set");
+            return "2.0".equals(set.get("version")) && set.keySet().equals(Set.of("version", "importedFields.version", "modified"));
+        }));
+    }
+
+    @Test
+    void mustOnlyRecordSpecificationOfDataServicesImportedWithoutImportedFields() {
+        String url = "https://a.example.org/spec.json";
+        DataService legacy = imported("LEGACY", url, "Edited title");
+        legacy.setImportedFields(null);
+
+        when(dataServiceMongoRepository.findImportedEndpointDescriptions()).thenReturn(Flux.just(url));
+        when(dataServiceMongoRepository.findAllImportedFrom(url)).thenReturn(Flux.just(legacy));
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenReturn(Mono.just(apiSpecification("API")));
+        when(dataServiceMongoRepository.updateFields(any(), any(), any(), any())).thenReturn(Mono.just(legacy));
+
+        List<DataService> refreshed = dataServiceService.refreshImported().collectList().block();
+
+        assertTrue(refreshed.isEmpty());
+        Map<String, String> importedFields = imported("LEGACY", url, "API").getImportedFields();
+        verify(dataServiceMongoRepository).updateFields(eq("LEGACY"), eq(CATALOG_ID), eq(3L), argThat(update ->
+                update.getUpdateObject().equals(new Document("$set", new Document("importedFields", importedFields)))));
+        verify(catalogCache, never()).invalidate(any(), any());
+    }
+
+    @Test
+    void mustHarvestEachCatalogOnceWhenRefreshEnds() {
+        when(dataServiceMongoRepository.findImportedEndpointDescriptions())
+                .thenReturn(Flux.just("https://a.example.org/spec.json", "https://b.example.org/spec.json"));
+        when(dataServiceMongoRepository.findAllImportedFrom(any())).thenAnswer(invocation -> {
+            DataService published = imported(invocation.getArgument(0), invocation.getArgument(0), "Old title");
+            published.setStatus(Status.PUBLISHED);
+            return Flux.just(published);
+        });
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenReturn(Mono.just(apiSpecification("API")));
+        when(dataServiceMongoRepository.updateFields(any(), any(), any(), any())).thenAnswer(invocation -> {
+            DataService updated = imported(invocation.getArgument(0), invocation.getArgument(0), "API");
+            updated.setStatus(Status.PUBLISHED);
+            updated.setDocumentVersion(4L);
+            return Mono.just(updated);
+        });
+        when(sender.sendWithPublishConfirms(any())).thenReturn(Flux.just(new OutboundMessageResult<>(
+                new OutboundMessage("", "", "".getBytes(StandardCharsets.UTF_8)), true)));
+
+        List<DataService> refreshed = dataServiceService.refreshImported().collectList().block();
+
+        assertEquals(2, refreshed.size());
+        verify(sender, times(1)).sendWithPublishConfirms(any());
+    }
+
+    @Test
+    void mustRetryRefreshWhileParsingIsBusy() {
+        String url = "https://a.example.org/spec.json";
+        AtomicInteger attempts = new AtomicInteger();
+
+        when(dataServiceMongoRepository.findImportedEndpointDescriptions()).thenReturn(Flux.just(url));
+        when(dataServiceMongoRepository.findAllImportedFrom(url)).thenReturn(Flux.just(imported("CHANGED", url, "Old title")));
+        when(apiHarvesterReactiveClient.convertApiSpecification(any())).thenReturn(Mono.defer(() -> attempts.incrementAndGet() < 3
+                ? Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many specifications being parsed, try again later"))
+                : Mono.just(apiSpecification("API"))));
+        when(dataServiceMongoRepository.updateFields(any(), any(), any(), any()))
+                .thenAnswer(invocation -> Mono.just(imported(invocation.getArgument(0), url, "API")));
+
+        StepVerifier.withVirtualTime(() -> dataServiceService.refreshImported())
+                .thenAwait(Duration.ofMinutes(1))
+                .expectNextMatches(refreshed -> "CHANGED".equals(refreshed.getId()))
+                .verifyComplete();
+        assertEquals(3, attempts.get());
+    }
+
+    private ApiSpecification apiSpecification(String title) {
+        ApiSpecification apiSpecification = new ApiSpecification();
+        Info info = new Info();
+        info.setTitle(title);
+        apiSpecification.setInfo(info);
+        return apiSpecification;
+    }
+
+    // as imported from a specification with this title and not edited since
+    private DataService imported(String id, String url, String title) {
+        DataService dataService = DataService.builder()
+                .id(id)
+                .organizationId(CATALOG_ID)
+                .title(Map.of(DataService.DEFAULT_LANGUAGE, title))
+                .operationCount(0)
+                .endpointUrls(List.of())
+                .endpointDescriptions(List.of(url))
+                .status(Status.DRAFT)
+                .imported(true)
+                .documentVersion(3L)
+                .build();
+        dataService.setImportedFields(dataServiceService.importedFields(dataService));
+        return dataService;
+    }
+
+    private ApiSpecificationSource source(String url) {
+        ApiSpecificationSource source = new ApiSpecificationSource();
+        source.setApiSpecUrl(url);
+        return source;
+    }
+
 }
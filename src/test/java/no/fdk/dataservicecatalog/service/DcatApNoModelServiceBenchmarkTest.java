@@ -0,0 +1,99 @@
+package no.fdk.dataservicecatalog.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.Status;
+import no.fdk.dataservicecatalog.repository.DataServiceMongoRepository;
+import no.fdk.dataservicecatalog.repository.DataServiceTombstoneMongoRepository;
+import no.fdk.dataservicecatalog.utils.TestData;
+import org.apache.jena.rdf.model.Model;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Times the full catalogs model build on 1, 2, 4 and 8 RDF threads. Threads only scale up to the cores of the host, so
+ * the speedups show how the build scales on 1, 2, 4 and 8 cores only on a host with at least 8; the cores available
+ * are logged with the timings. Run with {@code mvn test -Dtest=DcatApNoModelServiceBenchmarkTest -Dbenchmark=true}.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class DcatApNoModelServiceBenchmarkTest {
+    private static final int CATALOGS = 2000;
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 7;
+
+    @Test
+    void benchmarkCatalogsModelBuildPerThreadCount() {
+        List<DataService> dataServices = IntStream.range(0, CATALOGS)
+                .mapToObj(i -> TestData.createDataServices(String.format("%09d", i)))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        log.info("Benchmarking catalogs model build of {} data services on {} available core(s)", dataServices.size(), cores);
+        long baseline = 0;
+        long expectedSize = -1;
+        for (int threads : List.of(1, 2, 4, 8)) {
+            Scheduler scheduler = Schedulers.fromExecutorService(Executors.newFixedThreadPool(threads), "rdf-benchmark");
+            try {
+                DcatApNoModelService service = createService(threads, scheduler, dataServices);
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    service.buildCatalogsModel().block();
+                }
+
+                List<Long> timings = new ArrayList<>();
+                for (int i = 0; i < MEASURED_RUNS; i++) {
+                    long start = System.nanoTime();
+                    Model model = Objects.requireNonNull(service.buildCatalogsModel().block());
+                    timings.add((System.nanoTime() - start) / 1_000_000);
+
+                    if (expectedSize < 0) {
+                        expectedSize = model.size();
+                    }
+                    assertEquals(expectedSize, model.size());
+                }
+
+                Collections.sort(timings);
+                long median = timings.get(timings.size() / 2);
+                if (threads == 1) {
+                    baseline = median;
+                }
+                log.info("{} thread(s){}: median {} ms, speedup {}x", threads,
+                        threads > cores ? " on " + cores + " core(s)" : "", median,
+                        String.format("%.2f", (double) baseline / Math.max(median, 1)));
+            } finally {
+                scheduler.dispose();
+            }
+        }
+    }
+
+    private DcatApNoModelService createService(int threads, Scheduler scheduler, List<DataService> dataServices) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.setCatalogBaseUri("http://localhost");
+        applicationProperties.setOrgCatalogUri("http://localhost");
+        applicationProperties.getRdfScheduler().setThreads(threads);
+
+        DataServiceMongoRepository repository = mock(DataServiceMongoRepository.class);
+        when(repository.findAllByStatus(Status.PUBLISHED)).thenAnswer(invocation -> Flux.fromIterable(dataServices));
+
+        return new DcatApNoModelService(applicationProperties, repository, mock(DataServiceTombstoneMongoRepository.class), scheduler,
+                new QueryMetrics(new SimpleMeterRegistry()));
+    }
+}
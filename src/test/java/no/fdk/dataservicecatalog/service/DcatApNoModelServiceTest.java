@@ -1,21 +1,39 @@
 package no.fdk.dataservicecatalog.service;
 
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
 import no.fdk.dataservicecatalog.model.DataService;
 import no.fdk.dataservicecatalog.model.Status;
 import no.fdk.dataservicecatalog.repository.DataServiceMongoRepository;
+import no.fdk.dataservicecatalog.repository.DataServiceTombstoneMongoRepository;
 import no.fdk.dataservicecatalog.utils.TestData;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.RDF;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
 
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
@@ -25,9 +43,18 @@ public class DcatApNoModelServiceTest {
     @Autowired
     DcatApNoModelService dcatApNoModelService;
 
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    @Autowired
+    QueryMetrics queryMetrics;
+
     @MockBean
     DataServiceMongoRepository dataServiceMongoRepository;
 
+    @MockBean
+    DataServiceTombstoneMongoRepository dataServiceTombstoneMongoRepository;
+
     @Test
     void mustCorrectlyBuildCatalogsModelWhenCatalogsDoNotExist() {
         Flux<DataService> dataServices = Flux.just();
@@ -171,4 +198,163 @@ public class DcatApNoModelServiceTest {
         assertTrue(deserializedLdJson.isIsomorphicWith(expectedModel));
         assertTrue(deserializedTrix.isIsomorphicWith(expectedModel));
     }
+
+    @Test
+    void mustCorrectlyStreamCatalogsAsRDF() {
+        Flux<DataService> dataServices = Flux.merge(
+                Flux.fromIterable(TestData.createDataServices("catalog-id-1")),
+                Flux.fromIterable(TestData.createDataServices("catalog-id-2"))
+        );
+
+        when(dataServiceMongoRepository.findAllByStatus(Status.PUBLISHED)).thenReturn(dataServices);
+
+        Model expectedModel = RDFDataMgr.loadModel("catalogs.ttl");
+
+        for (Lang lang : List.of(Lang.TURTLE, Lang.N3, Lang.TRIG, Lang.NTRIPLES, Lang.NQUADS)) {
+            assertTrue(dcatApNoModelService.isStreamable(lang));
+
+            String serialised = DataBufferUtils
+                    .join(dcatApNoModelService.streamCatalogs(lang, new DefaultDataBufferFactory()))
+                    .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                    .block();
+            Model deserialised = ModelFactory.createDefaultModel().read(new StringReader(Objects.requireNonNull(serialised)), null, lang.getName());
+
+            assertTrue(deserialised.isIsomorphicWith(expectedModel), lang.getName());
+        }
+    }
+
+    @Test
+    void mustRejectStreamBeforeFirstBufferWhenSchedulerIsFull() {
+        ExecutorService full = Executors.newSingleThreadExecutor();
+        full.shutdown();
+        DcatApNoModelService rejecting = new DcatApNoModelService(applicationProperties, dataServiceMongoRepository,
+                dataServiceTombstoneMongoRepository, Schedulers.fromExecutorService(full), queryMetrics);
+        when(dataServiceMongoRepository.findAllByStatus(Status.PUBLISHED))
+                .thenReturn(Flux.fromIterable(TestData.createDataServices("catalog-id-1")));
+
+        StepVerifier.create(rejecting.streamCatalogs(Lang.TURTLE, new DefaultDataBufferFactory()))
+                .expectError(RejectedExecutionException.class)
+                .verify();
+    }
+
+    @Test
+    void mustWriteModelIntoDataBuffers() {
+        when(dataServiceMongoRepository.findAllByStatus(Status.PUBLISHED))
+                .thenReturn(Flux.fromIterable(TestData.createDataServices("catalog-id-1")));
+
+        Model model = dcatApNoModelService.buildCatalogsModel().block();
+        Model expectedModel = RDFDataMgr.loadModel("catalog.ttl");
+
+        for (Lang lang : List.of(Lang.RDFXML, Lang.JSONLD, Lang.RDFJSON, Lang.TRIX, Lang.TURTLE)) {
+            String serialised = DataBufferUtils
+                    .join(dcatApNoModelService.write(Objects.requireNonNull(model), lang, new DefaultDataBufferFactory()))
+                    .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                    .block();
+            Model deserialised = ModelFactory.createDefaultModel().read(new StringReader(Objects.requireNonNull(serialised)), null, lang.getName());
+
+            assertTrue(deserialised.isIsomorphicWith(expectedModel), lang.getName());
+        }
+    }
+
+    @Test
+    void mustEmitChunksAsTheyAreWrittenAndStopWhenCancelled() {
+        Model model = ModelFactory.createDefaultModel();
+        for (int index = 0; index < 1000; index++) {
+            model.createResource("http://localhost/data-services/" + index).addProperty(RDF.type, DCAT.DataService);
+        }
+
+        List<Integer> chunkSizes = dcatApNoModelService.write(model, Lang.NTRIPLES, new DefaultDataBufferFactory())
+                .map(DataBuffer::readableByteCount)
+                .collectList()
+                .block();
+        DataBuffer first = dcatApNoModelService.write(model, Lang.NTRIPLES, new DefaultDataBufferFactory()).blockFirst();
+
+        assertTrue(Objects.requireNonNull(chunkSizes).size() > 1);
+        assertTrue(chunkSizes.subList(0, chunkSizes.size() - 1).stream().allMatch(size -> size == 8192));
+        assertEquals(8192, Objects.requireNonNull(first).readableByteCount());
+    }
+
+    @Test
+    void mustWriteOnlyAFewChunksAheadOfWhatIsRequested() {
+        Model model = ModelFactory.createDefaultModel();
+        for (int index = 0; index < 10000; index++) {
+            model.createResource("http://localhost/data-services/" + index).addProperty(RDF.type, DCAT.DataService);
+        }
+        AtomicInteger allocated = new AtomicInteger();
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory() {
+            @Override
+            public DefaultDataBuffer allocateBuffer(int initialCapacity) {
+                allocated.incrementAndGet();
+                return super.allocateBuffer(initialCapacity);
+            }
+        };
+
+        StepVerifier.create(dcatApNoModelService.write(model, Lang.NTRIPLES, bufferFactory), 1)
+                .expectNextCount(1)
+                .thenAwait(Duration.ofMillis(200))
+                // the chunks written ahead and the one the serialiser waits to hand on
+                .then(() -> assertEquals(34, allocated.get()))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void mustFailWriteThatIsNotTakenWithinTimeout() {
+        ApplicationProperties properties = new ApplicationProperties();
+        properties.getRdfScheduler().setWriteTimeout(Duration.ofMillis(200));
+        DcatApNoModelService timingOut = new DcatApNoModelService(properties, dataServiceMongoRepository,
+                dataServiceTombstoneMongoRepository, Schedulers.immediate(), queryMetrics);
+        Model model = ModelFactory.createDefaultModel();
+        for (int index = 0; index < 10000; index++) {
+            model.createResource("http://localhost/data-services/" + index).addProperty(RDF.type, DCAT.DataService);
+        }
+
+        StepVerifier.create(timingOut.write(model, Lang.NTRIPLES, new DefaultDataBufferFactory()), 1)
+                .expectNextCount(1)
+                .thenAwait(Duration.ofMillis(500))
+                // the serialiser gave up while waiting, after the chunks it had written ahead
+                .thenRequest(Long.MAX_VALUE)
+                .thenConsumeWhile(chunk -> true)
+                .expectError(TimeoutException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void mustNotStreamLanguagesWithoutStreamingWriter() {
+        assertFalse(dcatApNoModelService.isStreamable(Lang.RDFXML));
+        assertFalse(dcatApNoModelService.isStreamable(Lang.JSONLD));
+        assertFalse(dcatApNoModelService.isStreamable(Lang.RDFJSON));
+        assertFalse(dcatApNoModelService.isStreamable(Lang.TRIX));
+    }
+
+    @Test
+    void mustExportPrecomputedFragmentsAndIgnoreStaleOnes() {
+        List<DataService> rendered = TestData.createDataServices("catalog-id-1");
+        rendered.forEach(dcatApNoModelService::renderFragment);
+        List<DataService> stale = TestData.createDataServices("catalog-id-2");
+        stale.forEach(dataService -> {
+            dataService.setRdfFragment("<http://example.com/stale> <http://example.com/stale> <http://example.com/stale> .\n");
+            dataService.setRdfFragmentFingerprint("0|http://example.com");
+        });
+
+        when(dataServiceMongoRepository.findAllByStatus(Status.PUBLISHED))
+                .thenAnswer(invocation -> Flux.merge(Flux.fromIterable(rendered), Flux.fromIterable(stale)));
+
+        Model expectedModel = RDFDataMgr.loadModel("catalogs.ttl");
+
+        assertTrue(rendered.stream().allMatch(dataService -> dataService.getRdfFragment() != null));
+        assertTrue(Objects.requireNonNull(dcatApNoModelService.buildCatalogsModel().block()).isIsomorphicWith(expectedModel));
+
+        for (Lang lang : List.of(Lang.TURTLE, Lang.NTRIPLES)) {
+            String serialised = DataBufferUtils
+                    .join(dcatApNoModelService.streamCatalogs(lang, new DefaultDataBufferFactory()))
+                    .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                    .block();
+            Model deserialised = ModelFactory.createDefaultModel().read(new StringReader(Objects.requireNonNull(serialised)), null, lang.getName());
+
+            assertTrue(deserialised.isIsomorphicWith(expectedModel), lang.getName());
+        }
+    }
 }
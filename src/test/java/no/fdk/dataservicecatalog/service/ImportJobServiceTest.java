@@ -0,0 +1,138 @@
+package no.fdk.dataservicecatalog.service;
+
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecificationSource;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.ImportJob;
+import no.fdk.dataservicecatalog.model.Lease;
+import no.fdk.dataservicecatalog.repository.ImportJobMongoRepository;
+import no.fdk.dataservicecatalog.repository.LeaseMongoRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ImportJobServiceTest {
+    private static final String CATALOG_ID = "12345";
+
+    private final ImportJobMongoRepository importJobMongoRepository = mock(ImportJobMongoRepository.class);
+    private final LeaseMongoRepository leaseMongoRepository = mock(LeaseMongoRepository.class);
+    private final DataServiceService dataServiceService = mock(DataServiceService.class);
+
+    @Test
+    void mustRunQueuedImportAndRecordTheOutcome() {
+        ImportJobService importJobService = new ImportJobService(importJobMongoRepository, leaseMongoRepository, dataServiceService, new LeaseOwner(), new ApplicationProperties());
+        when(importJobMongoRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(importJobMongoRepository.failUnfinished(any(), any(), any())).thenReturn(Mono.just(0L));
+        when(leaseMongoRepository.release(any(), any())).thenReturn(Mono.just(true));
+        when(dataServiceService.importFromSpecification(any(ApiSpecificationSource.class), eq(CATALOG_ID)))
+                .thenReturn(Mono.just(DataService.builder().id("IMPORTED").build()));
+        when(dataServiceService.importFromSpecification(eq("EXISTING"), eq(CATALOG_ID), any()))
+                .thenReturn(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "not a specification")));
+
+        ImportJob created = importJobService.submit(source("https://example.org/openapi.json"), CATALOG_ID, null).block();
+        ImportJob edited = importJobService.submit(source("https://example.org/other.json"), CATALOG_ID, "EXISTING").block();
+
+        assertEquals(ImportJob.State.QUEUED, created.getState());
+        verify(importJobMongoRepository, timeout(1000).atLeastOnce()).save(argThat(job -> job.getId().equals(created.getId())
+                && job.getState() == ImportJob.State.SUCCEEDED && "IMPORTED".equals(job.getDataServiceId()) && job.getFinished() != null));
+        verify(importJobMongoRepository, timeout(1000).atLeastOnce()).save(argThat(job -> job.getId().equals(edited.getId())
+                && job.getState() == ImportJob.State.FAILED && "not a specification".equals(job.getError())));
+        importJobService.stop();
+    }
+
+    @Test
+    void mustRefuseImportsBeyondTheQueueCapacity() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImportJobs().setConcurrency(1);
+        applicationProperties.getImportJobs().setQueueCapacity(1);
+        ImportJobService importJobService = new ImportJobService(importJobMongoRepository, leaseMongoRepository, dataServiceService, new LeaseOwner(), applicationProperties);
+        when(importJobMongoRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(importJobMongoRepository.delete(any())).thenReturn(Mono.empty());
+        when(importJobMongoRepository.failUnfinished(any(), any(), any())).thenReturn(Mono.just(0L));
+        when(leaseMongoRepository.release(any(), any())).thenReturn(Mono.just(true));
+        when(dataServiceService.importFromSpecification(any(ApiSpecificationSource.class), eq(CATALOG_ID))).thenReturn(Mono.never());
+
+        importJobService.submit(source("https://example.org/1.json"), CATALOG_ID, null).block();
+        importJobService.submit(source("https://example.org/2.json"), CATALOG_ID, null).block();
+        ResponseStatusException error = assertThrows(ResponseStatusException.class,
+                () -> importJobService.submit(source("https://example.org/3.json"), CATALOG_ID, null).block());
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, error.getStatus());
+        verify(importJobMongoRepository, times(1)).delete(argThat(job -> job.getApiSpecUrl().endsWith("3.json")));
+        verify(dataServiceService, times(1)).importFromSpecification(any(ApiSpecificationSource.class), any());
+        importJobService.stop();
+    }
+
+    @Test
+    void mustFailJobsOfInstancesWithoutHeartbeat() {
+        ImportJobService importJobService = new ImportJobService(importJobMongoRepository, leaseMongoRepository, dataServiceService, new LeaseOwner(), new ApplicationProperties());
+        when(leaseMongoRepository.acquire(any(), any(), any())).thenAnswer(invocation ->
+                Mono.just(new Lease(invocation.getArgument(0), invocation.getArgument(1), LocalDateTime.now().plusMinutes(3))));
+        when(leaseMongoRepository.findByNameStartingWithAndExpiresAfter(eq("import-jobs/"), any()))
+                .thenReturn(Flux.just(new Lease("import-jobs/other", "other", LocalDateTime.now().plusMinutes(1))));
+        when(importJobMongoRepository.failAbandoned(any(), any(), any())).thenReturn(Mono.just(2L));
+
+        importJobService.heartbeat();
+
+        ArgumentCaptor<String> name = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+        verify(leaseMongoRepository).acquire(name.capture(), owner.capture(), eq(Duration.ofMinutes(3)));
+        assertEquals("import-jobs/" + owner.getValue(), name.getValue());
+        verify(importJobMongoRepository, timeout(1000)).failAbandoned(
+                eq(Set.of("other", owner.getValue())),
+                argThat(createdBefore -> createdBefore.isBefore(LocalDateTime.now().minusMinutes(2))),
+                eq("The import was interrupted when its instance stopped"));
+    }
+
+    @Test
+    void mustFailOwnJobsAndReleaseHeartbeatOnShutdown() {
+        ImportJobService importJobService = new ImportJobService(importJobMongoRepository, leaseMongoRepository, dataServiceService, new LeaseOwner(), new ApplicationProperties());
+        when(importJobMongoRepository.failUnfinished(any(), any(), any())).thenReturn(Mono.just(2L));
+        when(leaseMongoRepository.release(any(), any())).thenReturn(Mono.just(true));
+
+        importJobService.stop();
+
+        ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+        verify(importJobMongoRepository).failUnfinished(owner.capture(), any(), eq("The import was interrupted by a shutdown"));
+        verify(leaseMongoRepository).release("import-jobs/" + owner.getValue(), owner.getValue());
+    }
+
+    @Test
+    void mustLetUnfinishedJobsExpireUntilTheyFinish() {
+        ImportJobService importJobService = new ImportJobService(importJobMongoRepository, leaseMongoRepository, dataServiceService, new LeaseOwner(), new ApplicationProperties());
+        when(importJobMongoRepository.save(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(importJobMongoRepository.failUnfinished(any(), any(), any())).thenReturn(Mono.just(0L));
+        when(leaseMongoRepository.release(any(), any())).thenReturn(Mono.just(true));
+        when(dataServiceService.importFromSpecification(any(ApiSpecificationSource.class), eq(CATALOG_ID)))
+                .thenReturn(Mono.just(DataService.builder().id("IMPORTED").build()));
+
+        ImportJob queued = importJobService.submit(source("https://example.org/openapi.json"), CATALOG_ID, null).block();
+
+        assertNotNull(queued.getExpires());
+        assertNotNull(queued.getOwner());
+        verify(importJobMongoRepository, timeout(1000).atLeastOnce()).save(argThat(job ->
+                job.getState() == ImportJob.State.SUCCEEDED && job.getExpires() == null));
+        importJobService.stop();
+    }
+
+    private ApiSpecificationSource source(String url) {
+        ApiSpecificationSource source = new ApiSpecificationSource();
+        source.setApiSpecUrl(url);
+        return source;
+    }
+}
@@ -0,0 +1,58 @@
+package no.fdk.dataservicecatalog.service;
+
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.model.DataService;
+import no.fdk.dataservicecatalog.model.Lease;
+import no.fdk.dataservicecatalog.repository.LeaseMongoRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ImportRefreshSchedulerTest {
+    private final DataServiceService dataServiceService = mock(DataServiceService.class);
+    private final LeaseMongoRepository leaseMongoRepository = mock(LeaseMongoRepository.class);
+
+    @Test
+    void mustRenewLeaseForOneAndAHalfIntervalsAroundRefresh() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImportRefresh().setInterval(Duration.ofHours(2));
+        ImportRefreshScheduler scheduler = new ImportRefreshScheduler(dataServiceService, leaseMongoRepository, new LeaseOwner(), applicationProperties);
+        when(leaseMongoRepository.acquire(eq("import-refresh"), any(), any())).thenReturn(Mono.just(new Lease()));
+        when(dataServiceService.refreshImported()).thenReturn(Flux.just(DataService.builder().id("REFRESHED").build()));
+
+        scheduler.refresh();
+
+        verify(leaseMongoRepository, timeout(1000).times(2)).acquire(eq("import-refresh"), any(), eq(Duration.ofHours(3)));
+    }
+
+    @Test
+    void mustNotRefreshWhenLeaseIsHeldElsewhere() {
+        ImportRefreshScheduler scheduler = new ImportRefreshScheduler(dataServiceService, leaseMongoRepository, new LeaseOwner(), new ApplicationProperties());
+        when(leaseMongoRepository.acquire(eq("import-refresh"), any(), any())).thenReturn(Mono.empty());
+
+        scheduler.refresh();
+
+        verify(dataServiceService, never()).refreshImported();
+    }
+
+    @Test
+    void mustReleaseLeaseOnShutdown() {
+        ImportRefreshScheduler scheduler = new ImportRefreshScheduler(dataServiceService, leaseMongoRepository, new LeaseOwner(), new ApplicationProperties());
+        when(leaseMongoRepository.acquire(eq("import-refresh"), any(), any())).thenReturn(Mono.empty());
+        when(leaseMongoRepository.release(eq("import-refresh"), any())).thenReturn(Mono.just(true));
+
+        scheduler.refresh();
+        scheduler.releaseLease();
+
+        ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+        verify(leaseMongoRepository).acquire(eq("import-refresh"), owner.capture(), any());
+        verify(leaseMongoRepository).release("import-refresh", owner.getValue());
+    }
+}
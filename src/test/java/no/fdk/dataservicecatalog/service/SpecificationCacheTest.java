@@ -0,0 +1,74 @@
+package no.fdk.dataservicecatalog.service;
+
+import no.fdk.dataservicecatalog.config.ApplicationProperties;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.info.Info;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("unit")
+public class SpecificationCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void put_ShouldSurviveRestart() {
+        SpecificationCache.Validators validators = new SpecificationCache.Validators("\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT");
+
+        cache(DataSize.ofMegabytes(1)).put("http://example.com/spec.json", validators, specification("Example")).block();
+
+        SpecificationCache restarted = cache(DataSize.ofMegabytes(1));
+        assertEquals(Optional.of(validators), restarted.validators("http://example.com/spec.json"));
+        assertEquals("Example", restarted.get("http://example.com/spec.json").block().getInfo().getTitle());
+    }
+
+    @Test
+    void put_WhenFull_ShouldEvictLeastRecentlyUsed() {
+        SpecificationCache cache = cache(DataSize.ofBytes(200));
+        SpecificationCache.Validators validators = new SpecificationCache.Validators("\"v1\"", null);
+
+        cache.put("http://example.com/a", validators, specification("A")).block();
+        cache.put("http://example.com/b", validators, specification("B")).block();
+        cache.get("http://example.com/a").block();
+        cache.put("http://example.com/c", validators, specification("C")).block();
+
+        assertTrue(cache.validators("http://example.com/a").isPresent());
+        assertTrue(cache.validators("http://example.com/b").isEmpty());
+        assertNull(cache.get("http://example.com/b").block());
+        assertTrue(cache.validators("http://example.com/c").isPresent());
+    }
+
+    @Test
+    void put_WithoutValidators_ShouldNotCache() {
+        SpecificationCache cache = cache(DataSize.ofMegabytes(1));
+
+        cache.put("http://example.com/spec.json", new SpecificationCache.Validators(null, null), specification("Example")).block();
+
+        assertTrue(cache.validators("http://example.com/spec.json").isEmpty());
+    }
+
+    private SpecificationCache cache(DataSize maxSize) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getSpecificationCache().setDirectory(directory);
+        applicationProperties.getSpecificationCache().setMaxSize(maxSize);
+        return new SpecificationCache(applicationProperties);
+    }
+
+    private static ApiSpecification specification(String title) {
+        Info info = new Info();
+        info.setTitle(title);
+        ApiSpecification specification = new ApiSpecification();
+        specification.setInfo(info);
+        return specification;
+    }
+}
@@ -0,0 +1,67 @@
+package no.fdk.dataservicecatalog.service.parser;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.v3.oas.models.OpenAPI;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.List;
+
+/**
+ * Times the direct conversion against the JSON round trip it replaced, with a new ObjectMapper per call as it was, on
+ * the test resource specs. Every result feeds a checksum that is printed, so the JIT cannot drop the conversions. Run
+ * with {@code mvn test -Dtest=OpenAPIToApiSpecificationConverterBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class OpenAPIToApiSpecificationConverterBenchmarkTest {
+    private static final int WARMUP_RUNS = 2000;
+    private static final int MEASURED_RUNS = 20000;
+
+    @Test
+    void benchmarkDirectConversionAgainstRoundTrip() throws Exception {
+        for (String resource : List.of("enhetsregisteret-openapi3.json", "enhetsregisteret-openapi30.json", "fs-api-swagger.json")) {
+            OpenAPI openAPI = OpenAPIToApiSpecificationConverterTest.readOpenAPI(resource);
+            long checksum = 0;
+
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                checksum += checksum(convertAsBefore(openAPI));
+                checksum += checksum(OpenAPIToApiSpecificationConverter.convert(openAPI));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                checksum += checksum(convertAsBefore(openAPI));
+            }
+            double roundTrip = (System.nanoTime() - start) / 1000.0 / MEASURED_RUNS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                checksum += checksum(OpenAPIToApiSpecificationConverter.convert(openAPI));
+            }
+            double direct = (System.nanoTime() - start) / 1000.0 / MEASURED_RUNS;
+
+            System.out.printf("%s: round trip %.1f us, direct %.1f us, speedup %.0fx (checksum %d)%n",
+                    resource, roundTrip, direct, roundTrip / Math.max(direct, 0.001), checksum);
+        }
+    }
+
+    // the conversion as it was before the direct mapping, mapper included
+    private static ApiSpecification convertAsBefore(OpenAPI openAPI) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return objectMapper.readValue(objectMapper.writeValueAsString(openAPI), ApiSpecification.class);
+    }
+
+    // reads every path of the result, cheaply next to the conversion itself
+    private static long checksum(ApiSpecification apiSpecification) {
+        long checksum = System.identityHashCode(apiSpecification);
+        if (apiSpecification.getPaths() != null) {
+            for (var path : apiSpecification.getPaths().entrySet()) {
+                checksum += System.identityHashCode(path.getValue());
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,44 @@
+package no.fdk.dataservicecatalog.service.parser;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.v3.oas.models.OpenAPI;
+import no.fdk.dataservicecatalog.dto.shared.apispecification.ApiSpecification;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("unit")
+public class OpenAPIToApiSpecificationConverterTest {
+
+    static final ObjectMapper ROUND_TRIP_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    static OpenAPI readOpenAPI(String resource) throws Exception {
+        String spec = IOUtils.toString(new ClassPathResource(resource).getInputStream(), StandardCharsets.UTF_8);
+        return SpecificationHeader.sniff(spec).getApiType() == Parser.ApiType.SWAGGER
+                ? new SwaggerJsonParser().parseToOpenAPI(spec)
+                : new OpenApiV3JsonParser().parseToOpenAPI(spec);
+    }
+
+    /**
+     * The conversion the direct mapping replaced, kept as the reference it must agree with.
+     */
+    static ApiSpecification convertByRoundTrip(OpenAPI openAPI) throws Exception {
+        return ROUND_TRIP_MAPPER.readValue(ROUND_TRIP_MAPPER.writeValueAsString(openAPI), ApiSpecification.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"enhetsregisteret-openapi3.json", "enhetsregisteret-openapi30.json", "fs-api-swagger.json"})
+    public void Convert_ShouldMatchJsonRoundTrip(String resource) throws Exception {
+        OpenAPI openAPI = readOpenAPI(resource);
+
+        assertEquals(convertByRoundTrip(openAPI), OpenAPIToApiSpecificationConverter.convert(openAPI));
+    }
+}
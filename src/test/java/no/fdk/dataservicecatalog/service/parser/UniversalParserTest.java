@@ -6,7 +6,9 @@ import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.core.io.ClassPathResource;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -43,6 +45,19 @@ public class UniversalParserTest {
         assertFalse(result);
     }
 
+    @Test
+    public void CanParse_WhenHeaderIsFollowedByLargeDocument_ShouldOnlyReadHeader() {
+        String spec = "{\"openapi\": \"3.0.1\", \"info\": {\"title\": \"T\", \"version\": \"1\"}, \"paths\": {not json";
+        assertTrue(parser.canParse(spec));
+    }
+
+    @Test
+    public void Sniff_WhenInfoPrecedesType_ShouldReadAllFields() {
+        SpecificationHeader header = SpecificationHeader.sniff("{\"info\": {\"x\": [1, {}], \"title\": \"T\", \"version\": \"2.1\"}, \"tags\": [], \"swagger\": \"2.0\"}");
+        assertEquals(new SpecificationHeader(Parser.ApiType.SWAGGER, "2.0", "T", "2.1"), header);
+        assertFalse(SpecificationHeader.sniff("[]").isValid(Parser.ApiType.SWAGGER, "2"));
+    }
+
     @Test
     public void Parse_WhenSwagger_ShouldParse() throws Exception {
         String spec = IOUtils.toString(new ClassPathResource("fs-api-swagger.json").getInputStream(), "UTF-8");
@@ -59,4 +74,12 @@ public class UniversalParserTest {
         assertEquals("Åpne Data fra Enhetsregisteret - API Dokumentasjon", parsed.getInfo().getTitle());
     }
 
+    @Test
+    public void Parse_WhenBytesWithoutCharset_ShouldDetectEncoding() throws Exception {
+        String spec = IOUtils.toString(new ClassPathResource("fs-api-swagger.json").getInputStream(), "UTF-8");
+
+        ApiSpecification parsed = new UniversalParser().parse(new ByteArrayInputStream(spec.getBytes(StandardCharsets.UTF_16BE)), null);
+        assertEquals("FS-API", parsed.getInfo().getTitle());
+    }
+
 }